@@ -1,7 +1,9 @@
 package ewing.dandelion;
 
+import ewing.dandelion.cache.IdentityFilter;
 import ewing.dandelion.generation.SqlGenerator;
 import ewing.dandelion.pagination.PageData;
+import ewing.dandelion.pagination.PageIterator;
 import ewing.dandelion.pagination.PageParam;
 
 import java.util.List;
@@ -62,6 +64,15 @@ public interface EntityDao extends SimpleDao {
      */
     <E> E[] addBatch(E... entities);
 
+    /**
+     * 使用多行Insert语句批量添加实体对象的全部属性到数据库，每条语句最多包含chunkSize行，不支持数据库自增ID。
+     *
+     * @param chunkSize 每条语句的最大行数。
+     * @param entities  多个实体对象。
+     * @return 添加成功的实体对象。
+     */
+    <E> E[] addBatchValues(int chunkSize, E... entities);
+
     /**
      * 更新实体对象的全部属性到数据库。
      *
@@ -96,6 +107,41 @@ public interface EntityDao extends SimpleDao {
      */
     <E> E[] updateBatch(E... entities);
 
+    /**
+     * 批量更新实体对象的积极属性到数据库，每个实体对象同时作为自身的配置对象。
+     * 积极属性相同的实体对象使用同一条语句在一个批处理中执行。
+     *
+     * @param entities 多个实体对象。
+     * @return 更新成功的实体对象。
+     */
+    <E> E[] updatePositiveBatch(E... entities);
+
+    /**
+     * 批量更新与配置对象积极属性对应的实体对象的属性，每条语句使用CASE按ID更新最多chunkSize行。
+     *
+     * @param config    配置对象。
+     * @param chunkSize 每条语句的最大行数。
+     * @param entities  多个实体对象。
+     * @return 更新成功的实体对象。
+     */
+    <E> E[] updateColumnsBatch(E config, int chunkSize, E... entities);
+
+    /**
+     * 根据ID插入或更新实体对象的全部属性，ID为空时自动生成。
+     *
+     * @param entity 实体对象。
+     * @return 插入或更新成功的实体对象。
+     */
+    <E> E upsert(E entity);
+
+    /**
+     * 根据ID批量插入或更新实体对象的全部属性，在一个批处理中执行。
+     *
+     * @param entities 多个实体对象。
+     * @return 插入或更新成功的实体对象。
+     */
+    <E> E[] upsertBatch(E... entities);
+
     /**
      * 根据ID或包含ID的实体或父类对象获取实体对象的全部属性。
      *
@@ -157,6 +203,26 @@ public interface EntityDao extends SimpleDao {
      */
     <E> PageData<E> getByPage(Class<E> entityClass, PageParam pageParam);
 
+    /**
+     * 获取在后台预加载下一页的分页迭代器，实体有ID时按ID键集分页。
+     *
+     * @param entityClass 实体类型。
+     * @param pageSize    每页数量。
+     * @param prefetch    最多预加载的页数。
+     * @return 分页迭代器。
+     */
+    <E> PageIterator<E> getPageIterator(Class<E> entityClass, int pageSize, int prefetch);
+
+    /**
+     * 读取全部ID创建已存在ID过滤器并配置到Sql生成器，get判断为不存在的ID不再查询。
+     *
+     * @param entityClass       实体类型。
+     * @param expectedSize      预计的ID数量。
+     * @param falsePositiveRate 可接受的误判率。
+     * @return 已存在ID过滤器。
+     */
+    IdentityFilter buildIdentityFilter(Class entityClass, long expectedSize, double falsePositiveRate);
+
     /**
      * 根据ID或包含ID的实体或父类对象删除实体对象。
      *
@@ -179,6 +245,16 @@ public interface EntityDao extends SimpleDao {
      */
     void deleteBatch(Object... entities);
 
+    /**
+     * 根据多个ID或包含ID的实体或父类对象批量删除实体对象，使用IN条件分块执行。
+     * 多个ID属性时直接传入的ID值须按ID属性的顺序依次排列。
+     *
+     * @param entityClass 实体类型。
+     * @param identities  多个ID或包含ID的实体或父类对象。
+     * @return 删除的记录数。
+     */
+    int deleteByIds(Class entityClass, Object... identities);
+
     /**
      * 删除全部实体对象。
      *
@@ -1,22 +1,38 @@
 package ewing.dandelion;
 
+import ewing.dandelion.cache.EntityCache;
+import ewing.dandelion.cache.IdentityFilter;
+import ewing.dandelion.cache.QueryCache;
+import ewing.dandelion.generation.EntityInfo;
 import ewing.dandelion.generation.EntityUtils;
+import ewing.dandelion.generation.Property;
 import ewing.dandelion.generation.SqlGenerator;
 import ewing.dandelion.pagination.PageData;
+import ewing.dandelion.pagination.PageIterator;
 import ewing.dandelion.pagination.PageParam;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.JdbcOperations;
 import org.springframework.jdbc.core.namedparam.BeanPropertySqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
 import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.KeyHolder;
 
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 基本数据访问类。
@@ -43,6 +59,7 @@ public abstract class GenericBaseDao<E> extends SimpleBaseDao implements Generic
     /**
      * 获取泛型的实际类型。
      */
+    @Override
     public Class<E> getEntityClass() {
         return entityClass;
     }
@@ -82,14 +99,85 @@ public abstract class GenericBaseDao<E> extends SimpleBaseDao implements Generic
         super.setNamedParamOperations(namedParamOperations);
     }
 
+    /**
+     * 使用配置的Sql生成器获取实体对象信息。
+     */
+    @Override
+    protected EntityInfo getEntityInfo(Class entityClass) {
+        return sqlGenerator.getEntityInfo(entityClass);
+    }
+
+    /**
+     * 使用配置的Sql生成器获取实体类型的二级缓存。
+     */
+    @Override
+    protected EntityCache getEntityCache(Class entityClass) {
+        return sqlGenerator.getEntityCache(entityClass);
+    }
+
+    /**
+     * 使用配置的Sql生成器获取实体类型的不存在ID缓存。
+     */
+    @Override
+    protected EntityCache getNegativeCache(Class entityClass) {
+        return sqlGenerator.getNegativeCache(entityClass);
+    }
+
+    /**
+     * 使用配置的Sql生成器获取实体类型的已存在ID过滤器。
+     */
+    @Override
+    protected IdentityFilter getIdentityFilter(Class entityClass) {
+        return sqlGenerator.getIdentityFilter(entityClass);
+    }
+
+    /**
+     * 获取Sql生成器中共享的查询结果缓存。
+     */
+    @Override
+    public QueryCache getQueryCache() {
+        return sqlGenerator.getQueryCache();
+    }
+
+    /**
+     * 设置Sql生成器中共享的查询结果缓存，使用同一个Sql生成器的DAO都会使用该缓存。
+     */
+    @Override
+    public void setQueryCache(QueryCache queryCache) {
+        sqlGenerator.setQueryCache(queryCache);
+    }
+
+    /**
+     * 使用配置的Sql生成器获取表的写入版本。
+     */
+    @Override
+    protected AtomicLong getWriteVersion(String table) {
+        return sqlGenerator.getWriteVersion(table);
+    }
+
     /**
      * 私有方法，根据Sql添加实体对象。
      */
     private E addEntity(E entity, String sql) {
         LOGGER.debug(sql);
         sqlGenerator.generateIdentity(entity);
-        if (namedParamOperations.update(sql, new BeanPropertySqlParameterSource(entity)) < 1)
-            throw new DaoException("Add entity failed.");
+        EntityInfo entityInfo = sqlGenerator.getEntityInfo(entity.getClass());
+        Property[] autoIncrements = entityInfo.getAutoIncrements();
+        if (autoIncrements.length == 0) {
+            if (namedParamOperations.update(sql, new BeanPropertySqlParameterSource(entity)) < 1)
+                throw new DaoException("Add entity failed.");
+        } else {
+            // 取回数据库生成的ID
+            String[] keyColumns = new String[autoIncrements.length];
+            for (int i = 0; i < autoIncrements.length; i++)
+                keyColumns[i] = autoIncrements[i].getSqlName();
+            KeyHolder keyHolder = new GeneratedKeyHolder();
+            if (namedParamOperations.update(sql, new BeanPropertySqlParameterSource(entity), keyHolder, keyColumns) < 1)
+                throw new DaoException("Add entity failed.");
+            if (!keyHolder.getKeyList().isEmpty())
+                EntityUtils.setGeneratedKeys(entityInfo, entity, keyHolder.getKeyList().get(0));
+        }
+        evictCache(entityClass, entity);
         return entity;
     }
 
@@ -133,17 +221,54 @@ public abstract class GenericBaseDao<E> extends SimpleBaseDao implements Generic
     public E[] addBatch(E... entities) {
         if (entities == null || entities.length == 0)
             throw new DaoException("Entities is empty.");
-        SqlParameterSource[] sources = new SqlParameterSource[entities.length];
-        for (int i = 0; i < entities.length; i++) {
-            E entity = entities[i];
+        for (E entity : entities) {
             if (entity == null)
                 throw new DaoException("Entity is empty.");
             sqlGenerator.generateIdentity(entity);
-            sources[i] = new BeanPropertySqlParameterSource(entity);
         }
+        EntityInfo entityInfo = sqlGenerator.getEntityInfo(entityClass);
+        if (entityInfo.getAutoIncrements().length > 0) {
+            // 需要取回数据库生成的ID
+            addBatchGeneratedKeys(entityInfo, sqlGenerator.getInsertMultiValues(entityClass, 1), entities);
+            evictCache(entityClass, (Object[]) entities);
+            return entities;
+        }
+        SqlParameterSource[] sources = new SqlParameterSource[entities.length];
+        for (int i = 0; i < entities.length; i++)
+            sources[i] = new BeanPropertySqlParameterSource(entities[i]);
         String sql = sqlGenerator.getInsertValues(entityClass);
         LOGGER.debug(sql);
         namedParamOperations.batchUpdate(sql, sources);
+        evictCache(entityClass, (Object[]) entities);
+        return entities;
+    }
+
+    /**
+     * 使用多行Insert语句批量添加实体对象的全部属性到数据库，每条语句最多包含chunkSize行，不支持数据库自增ID。
+     */
+    @Override
+    public E[] addBatchValues(int chunkSize, E... entities) {
+        if (entities == null || entities.length == 0 || chunkSize < 1)
+            throw new DaoException("Entities is empty or chunk size is invalid.");
+        for (E entity : entities) {
+            if (entity == null)
+                throw new DaoException("Entity is empty.");
+            sqlGenerator.generateIdentity(entity);
+        }
+        EntityInfo entityInfo = sqlGenerator.getEntityInfo(entityClass);
+        if (entityInfo.getAutoIncrements().length > 0)
+            throw new DaoException("Batch values does not support database generated identity.");
+        int rows = sqlGenerator.getMultiValuesRows(entityClass, chunkSize);
+        // 按行数分块执行 最后一块为剩余的行
+        for (int from = 0; from < entities.length; from += rows) {
+            int count = Math.min(rows, entities.length - from);
+            String sql = sqlGenerator.getInsertMultiValues(entityClass, count);
+            LOGGER.debug(sql);
+            Object[] params = EntityUtils.getEntitiesValues(entityInfo, entities, from, count);
+            if (jdbcOperations.update(sql, params) < count)
+                throw new DaoException("Add entities failed.");
+        }
+        evictCache(entityClass, (Object[]) entities);
         return entities;
     }
 
@@ -154,6 +279,7 @@ public abstract class GenericBaseDao<E> extends SimpleBaseDao implements Generic
         LOGGER.debug(sql);
         if (namedParamOperations.update(sql, new BeanPropertySqlParameterSource(entity)) < 1)
             throw new DaoException("Update entity failed.");
+        evictCache(entityClass, entity);
         return entity;
     }
 
@@ -207,6 +333,95 @@ public abstract class GenericBaseDao<E> extends SimpleBaseDao implements Generic
         String sql = sqlGenerator.getUpdateWhereIdEquals(entityClass);
         LOGGER.debug(sql);
         namedParamOperations.batchUpdate(sql, sources);
+        evictCache(entityClass, (Object[]) entities);
+        return entities;
+    }
+
+    /**
+     * 批量更新实体对象的积极属性到数据库，每个实体对象同时作为自身的配置对象。
+     */
+    @Override
+    public E[] updatePositiveBatch(E... entities) {
+        if (entities == null || entities.length == 0)
+            throw new DaoException("Entities is empty.");
+        // 按积极属性掩码分组 保持实体的先后顺序
+        Map<BitSet, List<SqlParameterSource>> groups = new LinkedHashMap<>();
+        for (E entity : entities) {
+            if (entity == null)
+                throw new DaoException("Entity is empty.");
+            groups.computeIfAbsent(sqlGenerator.getPositiveMask(entity), mask -> new ArrayList<>())
+                    .add(new BeanPropertySqlParameterSource(entity));
+        }
+        for (Map.Entry<BitSet, List<SqlParameterSource>> group : groups.entrySet()) {
+            String sql = sqlGenerator.getUpdateByMask(entityClass, group.getKey());
+            LOGGER.debug(sql);
+            List<SqlParameterSource> sources = group.getValue();
+            namedParamOperations.batchUpdate(sql, sources.toArray(new SqlParameterSource[sources.size()]));
+        }
+        evictCache(entityClass, (Object[]) entities);
+        return entities;
+    }
+
+    /**
+     * 批量更新与配置对象积极属性对应的实体对象的属性，每条语句使用CASE按ID更新最多chunkSize行。
+     */
+    @Override
+    public E[] updateColumnsBatch(E config, int chunkSize, E... entities) {
+        if (config == null || entities == null || entities.length == 0 || chunkSize < 1)
+            throw new DaoException("Config or entities is empty or chunk size is invalid.");
+        for (E entity : entities)
+            if (entity == null)
+                throw new DaoException("Entity is empty.");
+        EntityInfo entityInfo = sqlGenerator.getEntityInfo(entityClass);
+        BitSet mask = sqlGenerator.getPositiveMask(config);
+        int rows = sqlGenerator.getUpdateCaseRows(entityClass, mask, chunkSize);
+        // 按行数分块执行 最后一块为剩余的行
+        for (int from = 0; from < entities.length; from += rows) {
+            int count = Math.min(rows, entities.length - from);
+            String sql = sqlGenerator.getUpdateCaseByMask(entityClass, mask, count);
+            LOGGER.debug(sql);
+            Object[] params = EntityUtils.getUpdateCaseParams(entityInfo, mask, entities, from, count);
+            if (jdbcOperations.update(sql, params) < count)
+                throw new DaoException("Update entities failed.");
+        }
+        evictCache(entityClass, (Object[]) entities);
+        return entities;
+    }
+
+    /**
+     * 根据ID插入或更新实体对象的全部属性，ID为空时自动生成。
+     */
+    @Override
+    public E upsert(E entity) {
+        if (entity == null)
+            throw new DaoException("Entity is empty.");
+        String sql = sqlGenerator.getUpsertValues(entityClass);
+        LOGGER.debug(sql);
+        sqlGenerator.generateIdentityIfEmpty(entity);
+        namedParamOperations.update(sql, new BeanPropertySqlParameterSource(entity));
+        evictCache(entityClass, entity);
+        return entity;
+    }
+
+    /**
+     * 根据ID批量插入或更新实体对象的全部属性，在一个批处理中执行。
+     */
+    @Override
+    public E[] upsertBatch(E... entities) {
+        if (entities == null || entities.length == 0)
+            throw new DaoException("Entities is empty.");
+        SqlParameterSource[] sources = new SqlParameterSource[entities.length];
+        for (int i = 0; i < entities.length; i++) {
+            E entity = entities[i];
+            if (entity == null)
+                throw new DaoException("Entity is empty.");
+            sqlGenerator.generateIdentityIfEmpty(entity);
+            sources[i] = new BeanPropertySqlParameterSource(entity);
+        }
+        String sql = sqlGenerator.getUpsertValues(entityClass);
+        LOGGER.debug(sql);
+        namedParamOperations.batchUpdate(sql, sources);
+        evictCache(entityClass, (Object[]) entities);
         return entities;
     }
 
@@ -218,9 +433,9 @@ public abstract class GenericBaseDao<E> extends SimpleBaseDao implements Generic
         try {
             if (EntityUtils.isEntityOrSuper(identity, entityClass)) {
                 Object[] params = EntityUtils.getEntityIds(getSqlGenerator().getEntityInfo(entityClass), identity);
-                return jdbcOperations.queryForObject(sql, new BeanPropertyRowMapper<>(entityClass), params);
+                return getReadOperations().queryForObject(sql, new BeanPropertyRowMapper<>(entityClass), params);
             } else {
-                return jdbcOperations.queryForObject(sql, new BeanPropertyRowMapper<>(entityClass), identity);
+                return getReadOperations().queryForObject(sql, new BeanPropertyRowMapper<>(entityClass), identity);
             }
         } catch (EmptyResultDataAccessException e) {
             return null;
@@ -235,7 +450,7 @@ public abstract class GenericBaseDao<E> extends SimpleBaseDao implements Generic
         if (identity == null)
             throw new DaoException("Identity is empty.");
         String sql = sqlGenerator.getSelectWhereIdEquals(entityClass);
-        return getEntity(identity, sql);
+        return getCached(entityClass, identity, () -> getEntity(identity, sql));
     }
 
     /**
@@ -267,13 +482,20 @@ public abstract class GenericBaseDao<E> extends SimpleBaseDao implements Generic
     public List<E> getBatch(Object... identities) {
         if (identities == null || identities.length == 0)
             throw new DaoException("Identities is empty.");
+        return getBatchCached(entityClass, identities, this::queryBatch);
+    }
+
+    /**
+     * 私有方法，根据多个ID或包含ID的实体或父类对象从数据库批量获取实体对象。
+     */
+    private List<E> queryBatch(Object[] identities) {
         String sql = sqlGenerator.getSelectWhereBatchIds(entityClass, identities.length);
         LOGGER.debug(sql);
         if (EntityUtils.isEntityOrSuper(identities[0], entityClass)) {
             Object[] params = EntityUtils.getEntitiesIds(getSqlGenerator().getEntityInfo(entityClass), identities);
-            return jdbcOperations.query(sql, new BeanPropertyRowMapper<>(entityClass), params);
+            return getReadOperations().query(sql, new BeanPropertyRowMapper<>(entityClass), params);
         } else {
-            return jdbcOperations.query(sql, new BeanPropertyRowMapper<>(entityClass), identities);
+            return getReadOperations().query(sql, new BeanPropertyRowMapper<>(entityClass), identities);
         }
     }
 
@@ -284,7 +506,7 @@ public abstract class GenericBaseDao<E> extends SimpleBaseDao implements Generic
     public long countAll() {
         String sql = sqlGenerator.getCountWhereTrue(entityClass);
         LOGGER.debug(sql);
-        return jdbcOperations.queryForObject(sql, Long.class);
+        return getReadOperations().queryForObject(sql, Long.class);
     }
 
     /**
@@ -294,7 +516,7 @@ public abstract class GenericBaseDao<E> extends SimpleBaseDao implements Generic
     public List<E> getAll() {
         String sql = sqlGenerator.getSelectWhereTrue(entityClass);
         LOGGER.debug(sql);
-        return jdbcOperations.query(sql, new BeanPropertyRowMapper<>(entityClass));
+        return getReadOperations().query(sql, new BeanPropertyRowMapper<>(entityClass));
     }
 
     /**
@@ -308,6 +530,63 @@ public abstract class GenericBaseDao<E> extends SimpleBaseDao implements Generic
         return queryEntityPage(pageParam, entityClass, sql);
     }
 
+    /**
+     * 获取在后台预加载下一页的分页迭代器，实体有ID时按ID键集分页。
+     */
+    @Override
+    public PageIterator<E> getPageIterator(int pageSize, int prefetch) {
+        if (pageSize < 1 || prefetch < 1)
+            throw new DaoException("Page size or prefetch is invalid.");
+        EntityInfo entityInfo = sqlGenerator.getEntityInfo(entityClass);
+        BeanPropertyRowMapper<E> rowMapper = new BeanPropertyRowMapper<>(entityClass);
+        // 在调用线程中决定是否使用主库 后台线程不在调用者的事务中
+        JdbcOperations readOperations = getReadOperations();
+        // 没有ID时只能使用偏移量分页
+        if (entityInfo.getIdentities().length == 0) {
+            String sql = sqlGenerator.getSelectWhereTrue(entityClass) + " LIMIT " + pageSize + " OFFSET ";
+            return new PageIterator<>(pageSize, prefetch, (last, offset) -> {
+                LOGGER.debug(sql + offset);
+                return readOperations.query(sql + offset, rowMapper);
+            });
+        }
+        String firstSql = sqlGenerator.getSelectOrderById(entityClass) + " LIMIT " + pageSize;
+        String nextSql = sqlGenerator.getSelectWhereIdGreater(entityClass) + " LIMIT " + pageSize;
+        return new PageIterator<>(pageSize, prefetch, (last, offset) -> {
+            if (last == null) {
+                LOGGER.debug(firstSql);
+                return readOperations.query(firstSql, rowMapper);
+            }
+            LOGGER.debug(nextSql);
+            return readOperations.query(nextSql, rowMapper, EntityUtils.getKeysetIds(entityInfo, last));
+        });
+    }
+
+    /**
+     * 读取全部ID创建已存在ID过滤器并配置到Sql生成器，get判断为不存在的ID不再查询。
+     */
+    @Override
+    public IdentityFilter buildIdentityFilter(long expectedSize, double falsePositiveRate) {
+        String sql = sqlGenerator.getSelectIdentities(entityClass);
+        LOGGER.debug(sql);
+        int columns = sqlGenerator.getEntityInfo(entityClass).getIdentities().length;
+        IdentityFilter identityFilter = new IdentityFilter(expectedSize, falsePositiveRate);
+        // 先配置再读取 读取期间添加的ID也会被记录 读取完成前不判断ID不存在
+        sqlGenerator.setIdentityFilter(entityClass, identityFilter);
+        try {
+            jdbcOperations.query(sql, (RowCallbackHandler) resultSet -> {
+                Object[] identities = new Object[columns];
+                for (int i = 0; i < columns; i++)
+                    identities[i] = JdbcUtils.getResultSetValue(resultSet, i + 1);
+                identityFilter.put(identities);
+            });
+        } catch (RuntimeException e) {
+            sqlGenerator.setIdentityFilter(entityClass, null);
+            throw e;
+        }
+        identityFilter.setReady(true);
+        return identityFilter;
+    }
+
     /**
      * 根据ID或包含ID的实体或父类对象删除实体对象。
      */
@@ -325,6 +604,7 @@ public abstract class GenericBaseDao<E> extends SimpleBaseDao implements Generic
             if (jdbcOperations.update(sql, identity) < 0)
                 throw new DaoException("Delete entity failed.");
         }
+        evictCache(entityClass, identity);
     }
 
     /**
@@ -338,6 +618,7 @@ public abstract class GenericBaseDao<E> extends SimpleBaseDao implements Generic
         LOGGER.debug(sql);
         if (namedParamOperations.update(sql, new BeanPropertySqlParameterSource(entity)) < 0)
             throw new DaoException("Delete entity failed.");
+        evictCache(entityClass, entity);
     }
 
     /**
@@ -357,6 +638,32 @@ public abstract class GenericBaseDao<E> extends SimpleBaseDao implements Generic
         String sql = sqlGenerator.getDeleteNamedIdEquals(entityClass);
         LOGGER.debug(sql);
         namedParamOperations.batchUpdate(sql, sources);
+        evictCache(entityClass, (Object[]) entities);
+    }
+
+    /**
+     * 根据多个ID或包含ID的实体或父类对象批量删除实体对象，使用IN条件分块执行。
+     */
+    @Override
+    public int deleteByIds(Object... identities) {
+        if (identities == null || identities.length == 0)
+            throw new DaoException("Identities is empty.");
+        EntityInfo entityInfo = sqlGenerator.getEntityInfo(entityClass);
+        Object[] params = EntityUtils.isEntityOrSuper(identities[0], entityClass) ?
+                EntityUtils.getEntitiesIds(entityInfo, identities) : identities;
+        int idCount = entityInfo.getIdentities().length;
+        int chunk = sqlGenerator.getBatchIdsRows(entityClass) * idCount;
+        if (params.length % idCount != 0)
+            throw new DaoException("Identities do not match the identity properties.");
+        int deleted = 0;
+        for (int from = 0; from < params.length; from += chunk) {
+            int count = Math.min(chunk, params.length - from);
+            String sql = sqlGenerator.getDeleteWhereBatchIds(entityClass, count / idCount);
+            LOGGER.debug(sql);
+            deleted += jdbcOperations.update(sql, Arrays.copyOfRange(params, from, from + count));
+        }
+        evictCacheIds(entityClass, idCount, params);
+        return deleted;
     }
 
     /**
@@ -367,6 +674,7 @@ public abstract class GenericBaseDao<E> extends SimpleBaseDao implements Generic
         String sql = sqlGenerator.getDeleteWhereTrue(entityClass);
         LOGGER.debug(sql);
         jdbcOperations.update(sql);
+        clearCache(entityClass);
     }
 
 }
@@ -1,17 +1,57 @@
 package ewing.dandelion;
 
+import ewing.dandelion.cache.EntityCache;
+import ewing.dandelion.cache.IdentityFilter;
+import ewing.dandelion.cache.IdentityMap;
+import ewing.dandelion.cache.QueryCache;
+import ewing.dandelion.cache.QueryOptions;
+import ewing.dandelion.cache.SingleFlight;
+import ewing.dandelion.generation.EntityInfo;
+import ewing.dandelion.generation.EntityUtils;
+import ewing.dandelion.generation.Property;
+import ewing.dandelion.generation.SqlGenerator;
+import ewing.dandelion.handler.CallbackSummary;
+import ewing.dandelion.handler.EntityRowHandler;
+import ewing.dandelion.metrics.DaoMetrics;
+import ewing.dandelion.metrics.SlowQueryLog;
 import ewing.dandelion.pagination.PageData;
 import ewing.dandelion.pagination.PageParam;
+import ewing.dandelion.reactive.Flow;
+import ewing.dandelion.reactive.ResultSetPublisher;
+import ewing.dandelion.routing.ReplicaRouter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.LinkedCaseInsensitiveMap;
 
+import java.lang.reflect.Array;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
 
 /**
  * 公共JdbcOperations操作方法实现。
@@ -19,8 +59,17 @@ import java.util.Map;
 public class SimpleBaseDao implements SimpleDao {
     private static final Logger LOGGER = LoggerFactory.getLogger(SimpleBaseDao.class);
 
+    /**
+     * 默认的Sql生成器，未配置Sql生成器时用于获取实体信息。
+     */
+    private static final SqlGenerator DEFAULT_GENERATOR = new SqlGenerator();
+
     protected JdbcOperations jdbcOperations;
     protected NamedParameterJdbcOperations namedParamOperations;
+    protected QueryCache queryCache;
+    protected ReplicaRouter replicaRouter;
+    protected SingleFlight singleFlight;
+    protected SlowQueryLog slowQueryLog;
 
     /**
      * 快速初始化的构造方法。
@@ -33,7 +82,7 @@ public class SimpleBaseDao implements SimpleDao {
      */
     @Override
     public JdbcOperations getJdbcOperations() {
-        return jdbcOperations;
+        return SlowQueryLog.unwrap(jdbcOperations);
     }
 
     /**
@@ -41,7 +90,8 @@ public class SimpleBaseDao implements SimpleDao {
      */
     @Override
     public void setJdbcOperations(JdbcOperations jdbcOperations) {
-        this.jdbcOperations = jdbcOperations;
+        this.jdbcOperations = slowQueryLog == null ? jdbcOperations
+                : slowQueryLog.wrap(jdbcOperations, JdbcOperations.class);
     }
 
     /**
@@ -49,7 +99,7 @@ public class SimpleBaseDao implements SimpleDao {
      */
     @Override
     public NamedParameterJdbcOperations getNamedParamOperations() {
-        return namedParamOperations;
+        return SlowQueryLog.unwrap(namedParamOperations);
     }
 
     /**
@@ -57,7 +107,421 @@ public class SimpleBaseDao implements SimpleDao {
      */
     @Override
     public void setNamedParamOperations(NamedParameterJdbcOperations namedParamOperations) {
-        this.namedParamOperations = namedParamOperations;
+        this.namedParamOperations = slowQueryLog == null ? namedParamOperations
+                : slowQueryLog.wrap(namedParamOperations, NamedParameterJdbcOperations.class);
+    }
+
+    /**
+     * 获取查询结果缓存。
+     */
+    @Override
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * 设置查询结果缓存，为null时不缓存查询结果。
+     */
+    @Override
+    public void setQueryCache(QueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    /**
+     * 获取合并并发相同读取的登记表。
+     */
+    @Override
+    public SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * 设置合并并发相同读取的登记表，为null时不合并。
+     */
+    @Override
+    public void setSingleFlight(SingleFlight singleFlight) {
+        this.singleFlight = singleFlight;
+    }
+
+    /**
+     * 获取慢查询日志。
+     */
+    @Override
+    public SlowQueryLog getSlowQueryLog() {
+        return slowQueryLog;
+    }
+
+    /**
+     * 设置慢查询日志，为null时不记录。
+     */
+    @Override
+    public void setSlowQueryLog(SlowQueryLog slowQueryLog) {
+        JdbcOperations jdbcOperations = getJdbcOperations();
+        NamedParameterJdbcOperations namedParamOperations = getNamedParamOperations();
+        this.slowQueryLog = slowQueryLog;
+        setJdbcOperations(jdbcOperations);
+        setNamedParamOperations(namedParamOperations);
+    }
+
+    /**
+     * 获取读写分离路由。
+     */
+    @Override
+    public ReplicaRouter getReplicaRouter() {
+        return replicaRouter;
+    }
+
+    /**
+     * 设置读写分离路由，为null时全部使用主库。
+     */
+    @Override
+    public void setReplicaRouter(ReplicaRouter replicaRouter) {
+        this.replicaRouter = replicaRouter;
+    }
+
+    /**
+     * 获取只读查询使用的JdbcOperations，配置了路由且不要求主库、当前线程也不在写入后的窗口期内时使用从库。
+     */
+    protected JdbcOperations getReadOperations() {
+        if (replicaRouter == null || replicaRouter.isPrimaryPreferred())
+            return jdbcOperations;
+        JdbcOperations readOperations = DaoMetrics.instrumentReads(jdbcOperations, replicaRouter.getReadOperations());
+        return slowQueryLog == null ? readOperations : slowQueryLog.wrap(readOperations, JdbcOperations.class);
+    }
+
+    /**
+     * 获取实体对象信息，子类可使用配置的Sql生成器。
+     */
+    protected EntityInfo getEntityInfo(Class entityClass) {
+        return DEFAULT_GENERATOR.getEntityInfo(entityClass);
+    }
+
+    /**
+     * 获取实体类型的二级缓存，未启用时返回null，子类可使用配置的Sql生成器。
+     */
+    protected EntityCache getEntityCache(Class entityClass) {
+        return null;
+    }
+
+    /**
+     * 获取实体类型的不存在ID缓存，未启用时返回null，子类可使用配置的Sql生成器。
+     */
+    protected EntityCache getNegativeCache(Class entityClass) {
+        return null;
+    }
+
+    /**
+     * 获取实体类型的已存在ID过滤器，未启用时返回null，子类可使用配置的Sql生成器。
+     */
+    protected IdentityFilter getIdentityFilter(Class entityClass) {
+        return null;
+    }
+
+    /**
+     * 获取表的写入版本，子类可使用配置的Sql生成器。
+     */
+    protected AtomicLong getWriteVersion(String table) {
+        return DEFAULT_GENERATOR.getWriteVersion(table);
+    }
+
+    /**
+     * 私有方法，获取实体类型对应的表的写入版本。
+     */
+    private long getVersion(Class entityClass) {
+        return getWriteVersion(getEntityInfo(entityClass).getSqlName()).get();
+    }
+
+    /**
+     * 私有方法，获取多个表的写入版本之和，任意一个表写入后都会改变。
+     */
+    private long getVersion(Set<String> tables) {
+        long version = 0;
+        for (String table : tables)
+            version += getWriteVersion(table).get();
+        return version;
+    }
+
+    /**
+     * 获取ID或包含ID的实体或父类对象在缓存中的键。
+     */
+    protected List<Object> getCacheKey(Class entityClass, Object identity) {
+        if (EntityUtils.isEntityOrSuper(identity, entityClass))
+            return Arrays.asList(EntityUtils.getEntityIds(getEntityInfo(entityClass), identity));
+        return Collections.singletonList(identity);
+    }
+
+    /**
+     * 复制实体对象，缓存中保存和返回的都是副本，避免被调用者修改。
+     */
+    @SuppressWarnings("unchecked")
+    protected <T> T copyEntity(T entity) {
+        T copy = (T) BeanUtils.instantiateClass(entity.getClass());
+        BeanUtils.copyProperties(entity, copy);
+        return copy;
+    }
+
+    /**
+     * 优先从标识映射和缓存中获取实体对象，未命中时加载并放入缓存，确定不存在的ID直接返回null。
+     * 不可缓存时（见isCacheable）或加载期间发生了写入时，加载的结果和未找到的ID不放入共享的缓存和未找到缓存。
+     */
+    protected <T> T getCached(Class<T> entityClass, Object identity, Supplier<T> loader) {
+        IdentityMap identityMap = IdentityMap.current();
+        EntityCache cache = getEntityCache(entityClass);
+        EntityCache negativeCache = getNegativeCache(entityClass);
+        IdentityFilter identityFilter = getIdentityFilter(entityClass);
+        List<Object> key = getCacheKey(entityClass, identity);
+        if (identityMap == null && cache == null && negativeCache == null && identityFilter == null)
+            return this.singleFlight == null ? loader.get() : loadShared(entityClass, getVersion(entityClass), key, loader);
+        // 同一作用域中返回已获取的实例
+        if (identityMap != null) {
+            Object loaded = identityMap.get(entityClass, key);
+            if (loaded != null)
+                return entityClass.cast(loaded);
+        }
+        if (identityFilter != null && !identityFilter.mightContain(key.toArray()))
+            return null;
+        if (negativeCache != null && negativeCache.get(key) != null)
+            return null;
+        T entity = null;
+        if (cache != null) {
+            Object cached = cache.get(key);
+            if (cached != null)
+                entity = copyEntity(entityClass.cast(cached));
+        }
+        if (entity == null) {
+            // 加载之前获取版本，加载期间发生的写入使结果不放入缓存
+            long version = getVersion(entityClass);
+            entity = loadShared(entityClass, version, key, loader);
+            if (entity == null) {
+                // 事务中删除的记录回滚后仍存在
+                if (negativeCache != null && isCacheable(entityClass))
+                    putCache(negativeCache, entityClass, version, key, Boolean.TRUE);
+                return null;
+            }
+            if (cache != null && isCacheable(entityClass))
+                putCache(cache, entityClass, version, key, copyEntity(entity));
+        }
+        if (identityMap != null)
+            identityMap.put(entityClass, key, entity);
+        return entity;
+    }
+
+    /**
+     * 当前加载的实体是否可放入共享的缓存，见isCacheable(Collection)。
+     */
+    protected boolean isCacheable(Class entityClass) {
+        return isCacheable(Collections.singleton(getEntityInfo(entityClass).getSqlName()));
+    }
+
+    /**
+     * 当前从这些表加载的结果是否可放入共享的缓存：事务中读到的可能是未提交的数据，
+     * 写入其中任意一个表后的窗口期内从库可能尚未复制该写入，这两种情况下都不缓存。
+     */
+    protected boolean isCacheable(Collection<String> tables) {
+        if (TransactionSynchronizationManager.isActualTransactionActive())
+            return false;
+        ReplicaRouter router = this.replicaRouter;
+        if (router == null || router.isPrimaryPreferred())
+            return true;
+        for (String table : tables)
+            if (router.isWriteWindowOpen(table))
+                return false;
+        return true;
+    }
+
+    /**
+     * 私有方法，共享相同ID的加载，键包含加载前的写入版本，写入之后的读取不会共享写入之前开始的加载。
+     */
+    private <T> T loadShared(Class<T> entityClass, long version, List<Object> key, Supplier<T> loader) {
+        if (this.singleFlight == null)
+            return loader.get();
+        return loadShared(Arrays.asList(entityClass, version, key), loader, this::copyEntity);
+    }
+
+    /**
+     * 私有方法，加载期间没有写入时放入缓存，放入之后发现有写入时移除，写入方先递增版本再使缓存失效。
+     */
+    private void putCache(EntityCache cache, Class entityClass, long version, Object key, Object value) {
+        if (getVersion(entityClass) != version)
+            return;
+        cache.put(key, value);
+        if (getVersion(entityClass) != version)
+            cache.remove(key);
+    }
+
+    /**
+     * 配置了合并读取时与其他线程共享相同键的加载，在事务中时单独加载以读到事务中的写入。
+     */
+    protected <T> T loadShared(Object key, Supplier<T> loader, UnaryOperator<T> copier) {
+        SingleFlight flight = this.singleFlight;
+        if (flight == null || TransactionSynchronizationManager.isActualTransactionActive())
+            return loader.get();
+        return flight.execute(key, loader, copier);
+    }
+
+    /**
+     * 优先从标识映射和缓存中批量获取实体对象，只加载未命中的部分，按ID的先后顺序返回，
+     * 不可缓存时或加载期间发生了写入时加载的结果不放入缓存。
+     */
+    protected <T> List<T> getBatchCached(Class<T> entityClass, Object[] identities, Function<Object[], List<T>> loader) {
+        IdentityMap identityMap = IdentityMap.current();
+        EntityCache cache = getEntityCache(entityClass);
+        if (identityMap == null && cache == null)
+            return loader.apply(identities);
+        Map<List<Object>, T> found = new LinkedHashMap<>();
+        List<Object> misses = new ArrayList<>();
+        for (Object identity : identities) {
+            List<Object> key = getCacheKey(entityClass, identity);
+            if (found.containsKey(key))
+                continue;
+            T entity = null;
+            if (identityMap != null)
+                entity = entityClass.cast(identityMap.get(entityClass, key));
+            if (entity == null && cache != null) {
+                Object cached = cache.get(key);
+                if (cached != null) {
+                    entity = copyEntity(entityClass.cast(cached));
+                    if (identityMap != null)
+                        identityMap.put(entityClass, key, entity);
+                }
+            }
+            if (entity == null)
+                misses.add(identity);
+            found.put(key, entity);
+        }
+        if (!misses.isEmpty()) {
+            Object[] missIds = misses.toArray((Object[]) Array.newInstance(
+                    identities.getClass().getComponentType(), misses.size()));
+            EntityInfo entityInfo = getEntityInfo(entityClass);
+            long version = cache == null ? 0 : getVersion(entityClass);
+            List<T> loaded = loader.apply(missIds);
+            boolean cacheable = cache != null && isCacheable(entityClass);
+            for (T entity : loaded) {
+                List<Object> key = Arrays.asList(EntityUtils.getEntityIds(entityInfo, entity));
+                if (cacheable)
+                    putCache(cache, entityClass, version, key, copyEntity(entity));
+                if (identityMap != null)
+                    identityMap.put(entityClass, key, entity);
+                found.put(key, entity);
+            }
+        }
+        List<T> entities = new ArrayList<>(found.size());
+        for (T entity : found.values())
+            if (entity != null)
+                entities.add(entity);
+        return entities;
+    }
+
+    /**
+     * 递增实体对应的表的写入版本，使引用了该表的查询结果失效，并通知读写分离路由发生了写入。
+     */
+    protected void invalidateQueries(Class entityClass) {
+        getWriteVersion(getEntityInfo(entityClass).getSqlName()).incrementAndGet();
+        ReplicaRouter router = this.replicaRouter;
+        if (router != null)
+            router.recordWrite(getEntityInfo(entityClass).getSqlName());
+        QueryCache cache = getQueryCache();
+        if (cache != null)
+            cache.invalidate(getEntityInfo(entityClass).getSqlName());
+    }
+
+    /**
+     * 使ID或包含ID的实体或父类对象对应的缓存失效，同时使引用了该表的查询结果失效，并记录ID可能存在。
+     */
+    protected void evictCache(Class entityClass, Object... identities) {
+        invalidateQueries(entityClass);
+        IdentityMap identityMap = IdentityMap.current();
+        EntityCache cache = getEntityCache(entityClass);
+        EntityCache negativeCache = getNegativeCache(entityClass);
+        IdentityFilter identityFilter = getIdentityFilter(entityClass);
+        if (identityMap == null && cache == null && negativeCache == null && identityFilter == null) {
+            evictAfterTransaction(entityClass, Collections.emptyList());
+            return;
+        }
+        List<List<Object>> keys = new ArrayList<>(identities.length);
+        for (Object identity : identities) {
+            List<Object> key = getCacheKey(entityClass, identity);
+            keys.add(key);
+            if (identityMap != null)
+                identityMap.remove(entityClass, key);
+            if (cache != null)
+                cache.remove(key);
+            // 写入的ID可能已存在 删除的ID留在过滤器中不影响正确性
+            if (negativeCache != null)
+                negativeCache.remove(key);
+            if (identityFilter != null)
+                identityFilter.put(key.toArray());
+        }
+        evictAfterTransaction(entityClass, keys);
+    }
+
+    /**
+     * 使按顺序排列的多个ID值对应的缓存失效，每个实体的ID值个数为idCount。
+     */
+    protected void evictCacheIds(Class entityClass, int idCount, Object[] params) {
+        invalidateQueries(entityClass);
+        IdentityMap identityMap = IdentityMap.current();
+        EntityCache cache = getEntityCache(entityClass);
+        if (identityMap == null && cache == null) {
+            evictAfterTransaction(entityClass, Collections.emptyList());
+            return;
+        }
+        List<List<Object>> keys = new ArrayList<>(params.length / idCount);
+        for (int i = 0; i + idCount <= params.length; i += idCount) {
+            List<Object> key = Arrays.asList(Arrays.copyOfRange(params, i, i + idCount));
+            keys.add(key);
+            if (identityMap != null)
+                identityMap.remove(entityClass, key);
+            if (cache != null)
+                cache.remove(key);
+        }
+        evictAfterTransaction(entityClass, keys);
+    }
+
+    /**
+     * 清空实体类型的缓存。
+     */
+    protected void clearCache(Class entityClass) {
+        invalidateQueries(entityClass);
+        IdentityMap identityMap = IdentityMap.current();
+        if (identityMap != null)
+            identityMap.clear(entityClass);
+        EntityCache cache = getEntityCache(entityClass);
+        if (cache != null)
+            cache.clear();
+        EntityCache negativeCache = getNegativeCache(entityClass);
+        if (negativeCache != null)
+            negativeCache.clear();
+        evictAfterTransaction(entityClass, null);
+    }
+
+    /**
+     * 私有方法，在事务中时于事务结束后再次使共享的缓存失效，提交之前其他线程读到的旧数据可能已放入缓存，keys为null时清空。
+     */
+    private void evictAfterTransaction(Class entityClass, List<List<Object>> keys) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive())
+            return;
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                invalidateQueries(entityClass);
+                EntityCache cache = getEntityCache(entityClass);
+                EntityCache negativeCache = getNegativeCache(entityClass);
+                if (keys == null) {
+                    if (cache != null)
+                        cache.clear();
+                    if (negativeCache != null)
+                        negativeCache.clear();
+                    return;
+                }
+                for (List<Object> key : keys) {
+                    if (cache != null)
+                        cache.remove(key);
+                    if (negativeCache != null)
+                        negativeCache.remove(key);
+                }
+            }
+        });
     }
 
     /**
@@ -68,7 +532,7 @@ public class SimpleBaseDao implements SimpleDao {
         if (sql == null)
             throw new DaoException("Query sql is empty.");
         LOGGER.debug(sql);
-        return jdbcOperations.queryForObject(sql, Long.class, params);
+        return getReadOperations().queryForObject(sql, Long.class, params);
     }
 
     /**
@@ -80,7 +544,7 @@ public class SimpleBaseDao implements SimpleDao {
             throw new DaoException("Entity class or sql is empty.");
         LOGGER.debug(sql);
         try {
-            return jdbcOperations.queryForObject(sql, new BeanPropertyRowMapper<>(entityClass), params);
+            return getReadOperations().queryForObject(sql, new BeanPropertyRowMapper<>(entityClass), params);
         } catch (EmptyResultDataAccessException e) {
             return null;
         }
@@ -94,7 +558,7 @@ public class SimpleBaseDao implements SimpleDao {
         if (entityClass == null || sql == null)
             throw new DaoException("Entity class or sql is empty.");
         LOGGER.debug(sql);
-        return jdbcOperations.query(sql, new BeanPropertyRowMapper<>(entityClass), params);
+        return getReadOperations().query(sql, new BeanPropertyRowMapper<>(entityClass), params);
     }
 
     /**
@@ -106,7 +570,7 @@ public class SimpleBaseDao implements SimpleDao {
             throw new DaoException("Query sql is empty.");
         LOGGER.debug(sql);
         try {
-            return jdbcOperations.queryForMap(sql, params);
+            return getReadOperations().queryForMap(sql, params);
         } catch (EmptyResultDataAccessException e) {
             return null;
         }
@@ -120,7 +584,88 @@ public class SimpleBaseDao implements SimpleDao {
         if (sql == null)
             throw new DaoException("Query sql is empty.");
         LOGGER.debug(sql);
-        return jdbcOperations.queryForList(sql, params);
+        return getReadOperations().queryForList(sql, params);
+    }
+
+    /**
+     * 查询一个整数并封装成长整数，可根据查询选项使用缓存的结果。
+     */
+    @Override
+    public long queryLong(QueryOptions options, String sql, Object... params) {
+        return queryCached(options, Long.class, sql, params, () -> queryLong(sql, params),
+                result -> 1, result -> result);
+    }
+
+    /**
+     * 查询多条记录并封装成指定类型的实体对象列表，可根据查询选项使用缓存的结果。
+     */
+    @Override
+    public <T> List<T> queryEntityList(QueryOptions options, Class<T> entityClass, String sql, Object... params) {
+        return queryCached(options, entityClass, sql, params, () -> queryEntityList(entityClass, sql, params),
+                List::size, this::copyEntities);
+    }
+
+    /**
+     * 查询多条记录并封装成Map对象列表，可根据查询选项使用缓存的结果。
+     */
+    @Override
+    public List<Map<String, Object>> queryMapList(QueryOptions options, String sql, Object... params) {
+        return queryCached(options, Map.class, sql, params, () -> queryMapList(sql, params),
+                List::size, this::copyMaps);
+    }
+
+    /**
+     * 私有方法，复制实体对象列表。
+     */
+    private <T> List<T> copyEntities(List<T> entities) {
+        List<T> copies = new ArrayList<>(entities.size());
+        for (T entity : entities)
+            copies.add(copyEntity(entity));
+        return copies;
+    }
+
+    /**
+     * 私有方法，复制Map对象列表。
+     */
+    private List<Map<String, Object>> copyMaps(List<Map<String, Object>> maps) {
+        List<Map<String, Object>> copies = new ArrayList<>(maps.size());
+        for (Map<String, Object> map : maps) {
+            Map<String, Object> copy = new LinkedCaseInsensitiveMap<>(map.size());
+            copy.putAll(map);
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    /**
+     * 私有方法，优先使用缓存的查询结果，缓存中保存和返回的都是副本。
+     */
+    @SuppressWarnings("unchecked")
+    private <R> R queryCached(QueryOptions options, Class resultClass, String sql, Object[] params,
+                              Supplier<R> loader, ToLongFunction<R> rows, UnaryOperator<R> copier) {
+        if (sql == null)
+            throw new DaoException("Query sql is empty.");
+        QueryCache cache = getQueryCache();
+        boolean cached = cache != null && options != null && options.isCache();
+        if (!cached && this.singleFlight == null)
+            return loader.get();
+        List<Object> key = QueryCache.getKey(resultClass, sql, params);
+        if (cached) {
+            Object result = cache.get(key);
+            if (result != null)
+                return copier.apply((R) result);
+        }
+        // 共享的键包含表的写入版本，写入之后的查询不会共享写入之前开始的查询
+        Set<String> tables = QueryCache.getTables(sql);
+        long version = getVersion(tables);
+        R result = loadShared(this.singleFlight == null ? key : Arrays.asList(version, key), loader, copier);
+        // 加载期间没有写入时放入缓存，放入之后发现有写入时移除
+        if (cached && result != null && isCacheable(tables) && getVersion(tables) == version) {
+            cache.put(key, copier.apply(result), rows.applyAsLong(result), options.getTtlMillis(), sql);
+            if (getVersion(tables) != version)
+                cache.remove(key);
+        }
+        return result;
     }
 
     /**
@@ -140,7 +685,7 @@ public class SimpleBaseDao implements SimpleDao {
         }
         String pageSql = sql + " LIMIT " + pageParam.getLimit() + " OFFSET " + pageParam.getOffset();
         LOGGER.debug(pageSql);
-        List<T> content = jdbcOperations.query(pageSql, new BeanPropertyRowMapper<>(entityClass), params);
+        List<T> content = getReadOperations().query(pageSql, new BeanPropertyRowMapper<>(entityClass), params);
         if (!pageParam.isCount())
             pageData.setTotal(content.size());
         return pageData.setContent(content);
@@ -163,10 +708,99 @@ public class SimpleBaseDao implements SimpleDao {
         }
         String pageSql = sql + " LIMIT " + pageParam.getLimit() + " OFFSET " + pageParam.getOffset();
         LOGGER.debug(pageSql);
-        List<Map<String, Object>> content = jdbcOperations.queryForList(pageSql, params);
+        List<Map<String, Object>> content = getReadOperations().queryForList(pageSql, params);
         if (!pageParam.isCount())
             pageData.setTotal(content.size());
         return pageData.setContent(content);
     }
 
+    /**
+     * 逐条查询记录并封装成指定类型的实体对象交给消费者处理，不保留结果。
+     */
+    @Override
+    public <T> CallbackSummary forEach(Class<T> entityClass, String sql, Consumer<T> consumer, Object... params) {
+        return queryCallback(entityClass, sql, consumer, false, params);
+    }
+
+    /**
+     * 逐条查询记录并封装到同一个复用的实体对象中交给消费者处理，消费者不能持有该对象。
+     */
+    @Override
+    public <T> CallbackSummary forEachReuse(Class<T> entityClass, String sql, Consumer<T> consumer, Object... params) {
+        return queryCallback(entityClass, sql, consumer, true, params);
+    }
+
+    /**
+     * 查询记录并封装成指定类型的实体对象发布，按订阅者请求的数量从游标中读取。
+     */
+    @Override
+    public <T> Flow.Publisher<T> queryEntityPublisher(Class<T> entityClass, String sql, Object... params) {
+        if (entityClass == null || sql == null)
+            throw new DaoException("Entity class or sql is empty.");
+        EntityInfo entityInfo = getEntityInfo(entityClass);
+        return new ResultSetPublisher<>(getReadOperations(), sql, params,
+                consumer -> new EntityRowHandler<>(entityClass, entityInfo, consumer, false));
+    }
+
+    /**
+     * 查询记录并封装成Map对象发布，按订阅者请求的数量从游标中读取。
+     */
+    @Override
+    public Flow.Publisher<Map<String, Object>> queryMapPublisher(String sql, Object... params) {
+        if (sql == null)
+            throw new DaoException("Sql is empty.");
+        ColumnMapRowMapper mapper = new ColumnMapRowMapper();
+        return new ResultSetPublisher<>(getReadOperations(), sql, params,
+                consumer -> resultSet -> consumer.accept(mapper.mapRow(resultSet, resultSet.getRow())));
+    }
+
+    /**
+     * 私有方法，使用行处理器逐条处理查询结果。
+     */
+    private <T> CallbackSummary queryCallback(Class<T> entityClass, String sql, Consumer<T> consumer,
+                                              boolean reuse, Object... params) {
+        if (entityClass == null || sql == null || consumer == null)
+            throw new DaoException("Entity class or sql or consumer is empty.");
+        LOGGER.debug(sql);
+        long start = System.currentTimeMillis();
+        EntityRowHandler<T> handler = new EntityRowHandler<>(entityClass, getEntityInfo(entityClass), consumer, reuse);
+        getReadOperations().query(sql, handler, params);
+        return new CallbackSummary(handler.getRows(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 使用JDBC批处理插入实体对象，并在同一次执行中取回数据库生成的ID写回实体对象。
+     */
+    protected void addBatchGeneratedKeys(EntityInfo entityInfo, String sql, Object[] entities) {
+        Property[] autoIncrements = entityInfo.getAutoIncrements();
+        String[] keyColumns = new String[autoIncrements.length];
+        for (int i = 0; i < autoIncrements.length; i++)
+            keyColumns[i] = autoIncrements[i].getSqlName();
+        LOGGER.debug(sql);
+        jdbcOperations.execute((ConnectionCallback<Void>) connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(sql, keyColumns)) {
+                for (Object entity : entities) {
+                    Object[] values = EntityUtils.getEntityValues(entityInfo, entity);
+                    for (int i = 0; i < values.length; i++)
+                        StatementCreatorUtils.setParameterValue(statement, i + 1, SqlTypeValue.TYPE_UNKNOWN, values[i]);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                // 生成的ID与批处理的顺序一致
+                ColumnMapRowMapper mapper = new ColumnMapRowMapper();
+                ResultSet keys = statement.getGeneratedKeys();
+                try {
+                    int index = 0;
+                    while (keys != null && keys.next() && index < entities.length) {
+                        EntityUtils.setGeneratedKeys(entityInfo, entities[index], mapper.mapRow(keys, index));
+                        index++;
+                    }
+                } finally {
+                    JdbcUtils.closeResultSet(keys);
+                }
+            }
+            return null;
+        });
+    }
+
 }
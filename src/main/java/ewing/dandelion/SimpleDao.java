@@ -1,12 +1,20 @@
 package ewing.dandelion;
 
+import ewing.dandelion.cache.QueryCache;
+import ewing.dandelion.cache.QueryOptions;
+import ewing.dandelion.cache.SingleFlight;
+import ewing.dandelion.handler.CallbackSummary;
+import ewing.dandelion.metrics.SlowQueryLog;
 import ewing.dandelion.pagination.PageData;
 import ewing.dandelion.pagination.PageParam;
+import ewing.dandelion.reactive.Flow;
+import ewing.dandelion.routing.ReplicaRouter;
 import org.springframework.jdbc.core.JdbcOperations;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
 
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * 公共JdbcOperations操作方法接口。
@@ -33,6 +41,46 @@ public interface SimpleDao {
      */
     void setNamedParamOperations(NamedParameterJdbcOperations namedParamOperations);
 
+    /**
+     * 获取查询结果缓存。
+     */
+    QueryCache getQueryCache();
+
+    /**
+     * 设置查询结果缓存，为null时不缓存查询结果，使用Sql生成器的DAO共享Sql生成器中的缓存。
+     */
+    void setQueryCache(QueryCache queryCache);
+
+    /**
+     * 获取合并并发相同读取的登记表。
+     */
+    SingleFlight getSingleFlight();
+
+    /**
+     * 设置合并并发相同读取的登记表，get和传入QueryOptions的查询合并相同的并发读取，为null时不合并。
+     */
+    void setSingleFlight(SingleFlight singleFlight);
+
+    /**
+     * 获取慢查询日志。
+     */
+    SlowQueryLog getSlowQueryLog();
+
+    /**
+     * 设置慢查询日志，记录通过该Dao执行的超过阈值的语句，为null时不记录。
+     */
+    void setSlowQueryLog(SlowQueryLog slowQueryLog);
+
+    /**
+     * 获取读写分离路由。
+     */
+    ReplicaRouter getReplicaRouter();
+
+    /**
+     * 设置读写分离路由，为null时全部使用主库。
+     */
+    void setReplicaRouter(ReplicaRouter replicaRouter);
+
     /**
      * 查询一个整数并封装成长整数。
      */
@@ -58,6 +106,21 @@ public interface SimpleDao {
      */
     List<Map<String, Object>> queryMapList(String sql, Object... params);
 
+    /**
+     * 查询一个整数并封装成长整数，可根据查询选项使用缓存的结果。
+     */
+    long queryLong(QueryOptions options, String sql, Object... params);
+
+    /**
+     * 查询多条记录并封装成指定类型的实体对象列表，可根据查询选项使用缓存的结果。
+     */
+    <T> List<T> queryEntityList(QueryOptions options, Class<T> entityClass, String sql, Object... params);
+
+    /**
+     * 查询多条记录并封装成Map对象列表，可根据查询选项使用缓存的结果。
+     */
+    List<Map<String, Object>> queryMapList(QueryOptions options, String sql, Object... params);
+
     /**
      * 分页查询多条记录并封装成指定类型的实体对象分页数据。
      */
@@ -68,4 +131,24 @@ public interface SimpleDao {
      */
     PageData<Map<String, Object>> queryMapPage(PageParam pageParam, String sql, Object... params);
 
+    /**
+     * 逐条查询记录并封装成指定类型的实体对象交给消费者处理，不保留结果。
+     */
+    <T> CallbackSummary forEach(Class<T> entityClass, String sql, Consumer<T> consumer, Object... params);
+
+    /**
+     * 逐条查询记录并封装到同一个复用的实体对象中交给消费者处理，消费者不能持有该对象。
+     */
+    <T> CallbackSummary forEachReuse(Class<T> entityClass, String sql, Consumer<T> consumer, Object... params);
+
+    /**
+     * 查询记录并封装成指定类型的实体对象发布，按订阅者请求的数量从游标中读取。
+     */
+    <T> Flow.Publisher<T> queryEntityPublisher(Class<T> entityClass, String sql, Object... params);
+
+    /**
+     * 查询记录并封装成Map对象发布，按订阅者请求的数量从游标中读取。
+     */
+    Flow.Publisher<Map<String, Object>> queryMapPublisher(String sql, Object... params);
+
 }
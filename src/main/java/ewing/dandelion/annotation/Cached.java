@@ -0,0 +1,20 @@
+package ewing.dandelion.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * 标记实体类型使用二级缓存，按ID缓存get和getBatch获取的实体对象。
+ *
+ * @author Ewing
+ **/
+@Inherited
+@Documented
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Cached {
+    // 最多缓存的实体数
+    int maxSize() default 1000;
+
+    // 缓存的有效时间（毫秒），小于1表示不过期
+    long expireMillis() default 60000;
+}
@@ -4,6 +4,7 @@ import java.lang.annotation.*;
 
 /**
  * 标记为ID属性，一个类可以有多个ID属性。
+ * 默认由GlobalIdWorker生成ID，autoIncrement为true时由数据库生成。
  *
  * @author Ewing
  * @since 2017-05-22
@@ -15,4 +16,7 @@ import java.lang.annotation.*;
 public @interface Identity {
     // 默认自动生成ID
     boolean generate() default true;
+
+    // 由数据库生成ID（如自增列），插入时不包含该属性，插入后取回生成的值
+    boolean autoIncrement() default false;
 }
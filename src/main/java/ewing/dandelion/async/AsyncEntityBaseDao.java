@@ -0,0 +1,102 @@
+package ewing.dandelion.async;
+
+import ewing.dandelion.EntityDao;
+import ewing.dandelion.pagination.PageData;
+import ewing.dandelion.pagination.PageParam;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * 异步的实体对象操作实现，使用异步执行器执行EntityDao的方法。
+ *
+ * @author Ewing
+ */
+public class AsyncEntityBaseDao extends AsyncSimpleBaseDao implements AsyncEntityDao {
+
+    private final EntityDao entityDao;
+
+    /**
+     * 使用EntityDao和异步执行器初始化，异步执行器须与EntityDao使用相同的数据源。
+     */
+    public AsyncEntityBaseDao(EntityDao entityDao, AsyncExecutor asyncExecutor) {
+        super(entityDao, asyncExecutor);
+        this.entityDao = entityDao;
+    }
+
+    @Override
+    public <T> CompletableFuture<T> execute(Function<EntityDao, T> action) {
+        return asyncExecutor.submit(() -> action.apply(entityDao));
+    }
+
+    @Override
+    public <E> CompletableFuture<E> add(E entity) {
+        return asyncExecutor.submit(() -> entityDao.add(entity));
+    }
+
+    @Override
+    public <E> CompletableFuture<E[]> addBatch(E... entities) {
+        return asyncExecutor.submit(() -> entityDao.addBatch(entities));
+    }
+
+    @Override
+    public <E> CompletableFuture<E> update(E entity) {
+        return asyncExecutor.submit(() -> entityDao.update(entity));
+    }
+
+    @Override
+    public <E> CompletableFuture<E[]> updateBatch(E... entities) {
+        return asyncExecutor.submit(() -> entityDao.updateBatch(entities));
+    }
+
+    @Override
+    public <E> CompletableFuture<E> get(Class<E> entityClass, Object identity) {
+        return asyncExecutor.submit(() -> entityDao.get(entityClass, identity));
+    }
+
+    @Override
+    public <E> CompletableFuture<List<E>> getBatch(Class<E> entityClass, Object... identities) {
+        return asyncExecutor.submit(() -> entityDao.getBatch(entityClass, identities));
+    }
+
+    @Override
+    public CompletableFuture<Long> countAll(Class entityClass) {
+        return asyncExecutor.submit(() -> entityDao.countAll(entityClass));
+    }
+
+    @Override
+    public <E> CompletableFuture<List<E>> getAll(Class<E> entityClass) {
+        return asyncExecutor.submit(() -> entityDao.getAll(entityClass));
+    }
+
+    @Override
+    public <E> CompletableFuture<PageData<E>> getByPage(Class<E> entityClass, PageParam pageParam) {
+        return asyncExecutor.submit(() -> entityDao.getByPage(entityClass, pageParam));
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(Class entityClass, Object identity) {
+        return asyncExecutor.submit(() -> {
+            entityDao.delete(entityClass, identity);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteEntity(Object entity) {
+        return asyncExecutor.submit(() -> {
+            entityDao.deleteEntity(entity);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteBatch(Object... entities) {
+        return asyncExecutor.submit(() -> {
+            entityDao.deleteBatch(entities);
+            return null;
+        });
+    }
+
+}
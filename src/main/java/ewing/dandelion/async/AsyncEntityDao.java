@@ -0,0 +1,83 @@
+package ewing.dandelion.async;
+
+import ewing.dandelion.EntityDao;
+import ewing.dandelion.pagination.PageData;
+import ewing.dandelion.pagination.PageParam;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * 异步的实体对象操作接口，返回CompletableFuture，其他方法可通过execute执行。
+ *
+ * @author Ewing
+ */
+public interface AsyncEntityDao extends AsyncSimpleDao {
+
+    /**
+     * 异步执行EntityDao的任意方法。
+     */
+    <T> CompletableFuture<T> execute(Function<EntityDao, T> action);
+
+    /**
+     * 添加实体对象的全部属性到数据库。
+     */
+    <E> CompletableFuture<E> add(E entity);
+
+    /**
+     * 批量添加实体对象的全部属性到数据库。
+     */
+    <E> CompletableFuture<E[]> addBatch(E... entities);
+
+    /**
+     * 更新实体对象的全部属性到数据库。
+     */
+    <E> CompletableFuture<E> update(E entity);
+
+    /**
+     * 批量更新实体对象的全部属性到数据库。
+     */
+    <E> CompletableFuture<E[]> updateBatch(E... entities);
+
+    /**
+     * 根据ID或包含ID的实体或父类对象获取实体对象的全部属性。
+     */
+    <E> CompletableFuture<E> get(Class<E> entityClass, Object identity);
+
+    /**
+     * 根据多个ID或包含ID的实体或父类对象批量获取实体对象的全部属性。
+     */
+    <E> CompletableFuture<List<E>> getBatch(Class<E> entityClass, Object... identities);
+
+    /**
+     * 查询实体对象总数。
+     */
+    CompletableFuture<Long> countAll(Class entityClass);
+
+    /**
+     * 查询全部实体对象。
+     */
+    <E> CompletableFuture<List<E>> getAll(Class<E> entityClass);
+
+    /**
+     * 分页查询全部实体对象。
+     */
+    <E> CompletableFuture<PageData<E>> getByPage(Class<E> entityClass, PageParam pageParam);
+
+    /**
+     * 根据ID或包含ID的实体或父类对象删除实体对象。
+     */
+    CompletableFuture<Void> delete(Class entityClass, Object identity);
+
+    /**
+     * 从数据库删除实体对象。
+     */
+    CompletableFuture<Void> deleteEntity(Object entity);
+
+    /**
+     * 批量从数据库删除实体对象。
+     */
+    CompletableFuture<Void> deleteBatch(Object... entities);
+
+}
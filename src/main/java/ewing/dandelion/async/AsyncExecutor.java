@@ -0,0 +1,299 @@
+package ewing.dandelion.async;
+
+import ewing.dandelion.DaoException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.ConnectionHolder;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * 异步执行数据库操作，同一个数据源应使用同一个实例以限制并发数，超出并发数的操作排队等待。
+ * 每个操作在独立的连接上执行，超时时间作为语句的查询超时，超时或取消时取消正在执行的语句。
+ * 默认在支持虚拟线程的JDK上使用虚拟线程，否则使用守护线程池。
+ *
+ * @author Ewing
+ */
+public class AsyncExecutor implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncExecutor.class);
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "dandelion-async-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final DataSource dataSource;
+
+    private final Executor executor;
+
+    private final boolean ownExecutor;
+
+    private final int maxConcurrency;
+
+    private final Queue<Task<?>> waiting = new ArrayDeque<>();
+
+    private int running;
+
+    private long timeoutMillis;
+
+    /**
+     * 使用默认的执行器初始化，最多同时执行maxConcurrency个操作。
+     */
+    public AsyncExecutor(DataSource dataSource, int maxConcurrency) {
+        this(dataSource, defaultExecutor(), maxConcurrency, true);
+    }
+
+    /**
+     * 使用指定的执行器初始化，最多同时执行maxConcurrency个操作，关闭时不关闭该执行器。
+     */
+    public AsyncExecutor(DataSource dataSource, Executor executor, int maxConcurrency) {
+        this(dataSource, executor, maxConcurrency, false);
+    }
+
+    private AsyncExecutor(DataSource dataSource, Executor executor, int maxConcurrency, boolean ownExecutor) {
+        if (dataSource == null || executor == null || maxConcurrency < 1)
+            throw new DaoException("Data source or executor is empty or max concurrency is invalid.");
+        this.dataSource = dataSource;
+        this.executor = executor;
+        this.maxConcurrency = maxConcurrency;
+        this.ownExecutor = ownExecutor;
+    }
+
+    /**
+     * 创建默认的执行器，JDK支持时使用虚拟线程。
+     */
+    public static ExecutorService defaultExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "dandelion-async");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * 设置默认的超时时间（毫秒），小于1表示不超时。
+     */
+    public AsyncExecutor setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        return this;
+    }
+
+    /**
+     * 获取正在执行和排队等待的操作数。
+     */
+    public synchronized int getPending() {
+        return running + waiting.size();
+    }
+
+    /**
+     * 使用默认的超时时间异步执行操作。
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> operation) {
+        return submit(operation, timeoutMillis);
+    }
+
+    /**
+     * 异步执行操作，超时时以TimeoutException结束，超时或取消时取消正在执行的语句。
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> operation, long timeoutMillis) {
+        if (operation == null)
+            throw new DaoException("Operation is empty.");
+        Task<T> task = new Task<>(operation, timeoutMillis);
+        task.future.whenComplete((result, error) -> {
+            if (error != null)
+                task.cancel();
+        });
+        if (timeoutMillis > 0) {
+            ScheduledFuture<?> timer = TIMER.schedule(() -> task.future.completeExceptionally(
+                    new TimeoutException("Execution timed out after " + timeoutMillis + " ms.")),
+                    timeoutMillis, TimeUnit.MILLISECONDS);
+            task.future.whenComplete((result, error) -> timer.cancel(false));
+        }
+        synchronized (this) {
+            if (running >= maxConcurrency) {
+                waiting.add(task);
+                return task.future;
+            }
+            running++;
+        }
+        dispatch(task);
+        return task.future;
+    }
+
+    /**
+     * 交给执行器执行，结束后执行下一个等待的操作。
+     */
+    private void dispatch(Task<?> task) {
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    next();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            task.future.completeExceptionally(e);
+            next();
+        }
+    }
+
+    /**
+     * 执行下一个等待的操作，没有时减少执行数。
+     */
+    private void next() {
+        Task<?> task;
+        synchronized (this) {
+            task = waiting.poll();
+            if (task == null) {
+                running--;
+                return;
+            }
+        }
+        dispatch(task);
+    }
+
+    /**
+     * 关闭默认创建的执行器，指定的执行器由调用者关闭。
+     */
+    @Override
+    public void close() {
+        if (ownExecutor)
+            ((ExecutorService) executor).shutdown();
+    }
+
+    /**
+     * 异步执行的操作，记录创建的语句以便取消。
+     */
+    private class Task<T> {
+        private final Supplier<T> operation;
+        private final long deadline;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private final List<Statement> statements = new ArrayList<>();
+        private boolean cancelled;
+        private boolean finished;
+
+        private Task(Supplier<T> operation, long timeoutMillis) {
+            this.operation = operation;
+            this.deadline = timeoutMillis > 0 ? System.currentTimeMillis() + timeoutMillis : 0;
+        }
+
+        /**
+         * 在绑定到当前线程的独立连接上执行，Spring Jdbc会使用该连接并应用超时时间。
+         */
+        private void run() {
+            // 排队期间已超时或被取消
+            if (future.isDone())
+                return;
+            Connection connection = null;
+            try {
+                connection = dataSource.getConnection();
+                ConnectionHolder holder = new ConnectionHolder(wrap(connection));
+                if (deadline > 0)
+                    holder.setTimeoutInMillis(Math.max(1, deadline - System.currentTimeMillis()));
+                TransactionSynchronizationManager.bindResource(dataSource, holder);
+                try {
+                    future.complete(operation.get());
+                } finally {
+                    TransactionSynchronizationManager.unbindResource(dataSource);
+                }
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                finish();
+                JdbcUtils.closeConnection(connection);
+            }
+        }
+
+        /**
+         * 代理连接，记录创建的语句。
+         */
+        private Connection wrap(Connection target) {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class[]{Connection.class}, (proxy, method, args) -> {
+                        if ("equals".equals(method.getName()))
+                            return proxy == args[0];
+                        if ("hashCode".equals(method.getName()))
+                            return System.identityHashCode(proxy);
+                        try {
+                            Object result = method.invoke(target, args);
+                            if (result instanceof Statement)
+                                register((Statement) result);
+                            return result;
+                        } catch (InvocationTargetException e) {
+                            throw e.getTargetException();
+                        }
+                    });
+        }
+
+        private synchronized void register(Statement statement) throws SQLException {
+            if (cancelled) {
+                JdbcUtils.closeStatement(statement);
+                throw new SQLException("Execution cancelled.");
+            }
+            statements.add(statement);
+        }
+
+        /**
+         * 取消正在执行的语句。
+         */
+        private synchronized void cancel() {
+            if (cancelled || finished)
+                return;
+            cancelled = true;
+            for (Statement statement : statements) {
+                try {
+                    statement.cancel();
+                } catch (SQLException e) {
+                    LOGGER.debug("Cancel statement failed.", e);
+                }
+            }
+        }
+
+        private synchronized void finish() {
+            finished = true;
+            statements.clear();
+        }
+    }
+
+}
@@ -0,0 +1,102 @@
+package ewing.dandelion.async;
+
+import ewing.dandelion.GenericDao;
+import ewing.dandelion.pagination.PageData;
+import ewing.dandelion.pagination.PageParam;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * 异步的泛型实体对象操作实现，使用异步执行器执行GenericDao的方法。
+ *
+ * @author Ewing
+ */
+public class AsyncGenericBaseDao<E> extends AsyncSimpleBaseDao implements AsyncGenericDao<E> {
+
+    private final GenericDao<E> genericDao;
+
+    /**
+     * 使用GenericDao和异步执行器初始化，异步执行器须与GenericDao使用相同的数据源。
+     */
+    public AsyncGenericBaseDao(GenericDao<E> genericDao, AsyncExecutor asyncExecutor) {
+        super(genericDao, asyncExecutor);
+        this.genericDao = genericDao;
+    }
+
+    @Override
+    public <T> CompletableFuture<T> execute(Function<GenericDao<E>, T> action) {
+        return asyncExecutor.submit(() -> action.apply(genericDao));
+    }
+
+    @Override
+    public CompletableFuture<E> add(E entity) {
+        return asyncExecutor.submit(() -> genericDao.add(entity));
+    }
+
+    @Override
+    public CompletableFuture<E[]> addBatch(E... entities) {
+        return asyncExecutor.submit(() -> genericDao.addBatch(entities));
+    }
+
+    @Override
+    public CompletableFuture<E> update(E entity) {
+        return asyncExecutor.submit(() -> genericDao.update(entity));
+    }
+
+    @Override
+    public CompletableFuture<E[]> updateBatch(E... entities) {
+        return asyncExecutor.submit(() -> genericDao.updateBatch(entities));
+    }
+
+    @Override
+    public CompletableFuture<E> get(Object identity) {
+        return asyncExecutor.submit(() -> genericDao.get(identity));
+    }
+
+    @Override
+    public CompletableFuture<List<E>> getBatch(Object... identities) {
+        return asyncExecutor.submit(() -> genericDao.getBatch(identities));
+    }
+
+    @Override
+    public CompletableFuture<Long> countAll() {
+        return asyncExecutor.submit(genericDao::countAll);
+    }
+
+    @Override
+    public CompletableFuture<List<E>> getAll() {
+        return asyncExecutor.submit(genericDao::getAll);
+    }
+
+    @Override
+    public CompletableFuture<PageData<E>> getByPage(PageParam pageParam) {
+        return asyncExecutor.submit(() -> genericDao.getByPage(pageParam));
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(Object identity) {
+        return asyncExecutor.submit(() -> {
+            genericDao.delete(identity);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteEntity(E entity) {
+        return asyncExecutor.submit(() -> {
+            genericDao.deleteEntity(entity);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteBatch(E... entities) {
+        return asyncExecutor.submit(() -> {
+            genericDao.deleteBatch(entities);
+            return null;
+        });
+    }
+
+}
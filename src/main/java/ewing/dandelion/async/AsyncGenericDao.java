@@ -0,0 +1,83 @@
+package ewing.dandelion.async;
+
+import ewing.dandelion.GenericDao;
+import ewing.dandelion.pagination.PageData;
+import ewing.dandelion.pagination.PageParam;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * 异步的泛型实体对象操作接口，返回CompletableFuture，其他方法可通过execute执行。
+ *
+ * @author Ewing
+ */
+public interface AsyncGenericDao<E> extends AsyncSimpleDao {
+
+    /**
+     * 异步执行GenericDao的任意方法。
+     */
+    <T> CompletableFuture<T> execute(Function<GenericDao<E>, T> action);
+
+    /**
+     * 添加实体对象的全部属性到数据库。
+     */
+    CompletableFuture<E> add(E entity);
+
+    /**
+     * 批量添加实体对象的全部属性到数据库。
+     */
+    CompletableFuture<E[]> addBatch(E... entities);
+
+    /**
+     * 更新实体对象的全部属性到数据库。
+     */
+    CompletableFuture<E> update(E entity);
+
+    /**
+     * 批量更新实体对象的全部属性到数据库。
+     */
+    CompletableFuture<E[]> updateBatch(E... entities);
+
+    /**
+     * 根据ID或包含ID的实体或父类对象获取实体对象的全部属性。
+     */
+    CompletableFuture<E> get(Object identity);
+
+    /**
+     * 根据多个ID或包含ID的实体或父类对象批量获取实体对象的全部属性。
+     */
+    CompletableFuture<List<E>> getBatch(Object... identities);
+
+    /**
+     * 查询实体对象总数。
+     */
+    CompletableFuture<Long> countAll();
+
+    /**
+     * 查询全部实体对象。
+     */
+    CompletableFuture<List<E>> getAll();
+
+    /**
+     * 分页查询全部实体对象。
+     */
+    CompletableFuture<PageData<E>> getByPage(PageParam pageParam);
+
+    /**
+     * 根据ID或包含ID的实体或父类对象删除实体对象。
+     */
+    CompletableFuture<Void> delete(Object identity);
+
+    /**
+     * 从数据库删除实体对象。
+     */
+    CompletableFuture<Void> deleteEntity(E entity);
+
+    /**
+     * 批量从数据库删除实体对象。
+     */
+    CompletableFuture<Void> deleteBatch(E... entities);
+
+}
@@ -0,0 +1,68 @@
+package ewing.dandelion.async;
+
+import ewing.dandelion.DaoException;
+import ewing.dandelion.SimpleDao;
+import ewing.dandelion.pagination.PageData;
+import ewing.dandelion.pagination.PageParam;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 异步的公共查询方法实现，使用异步执行器执行SimpleDao的方法。
+ *
+ * @author Ewing
+ */
+public class AsyncSimpleBaseDao implements AsyncSimpleDao {
+
+    private final SimpleDao simpleDao;
+
+    protected final AsyncExecutor asyncExecutor;
+
+    /**
+     * 使用SimpleDao和异步执行器初始化，异步执行器须与SimpleDao使用相同的数据源。
+     */
+    public AsyncSimpleBaseDao(SimpleDao simpleDao, AsyncExecutor asyncExecutor) {
+        if (simpleDao == null || asyncExecutor == null)
+            throw new DaoException("Simple dao or async executor is empty.");
+        this.simpleDao = simpleDao;
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    @Override
+    public AsyncExecutor getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    @Override
+    public CompletableFuture<Long> queryLong(String sql, Object... params) {
+        return asyncExecutor.submit(() -> simpleDao.queryLong(sql, params));
+    }
+
+    @Override
+    public <T> CompletableFuture<T> queryEntity(Class<T> entityClass, String sql, Object... params) {
+        return asyncExecutor.submit(() -> simpleDao.queryEntity(entityClass, sql, params));
+    }
+
+    @Override
+    public <T> CompletableFuture<List<T>> queryEntityList(Class<T> entityClass, String sql, Object... params) {
+        return asyncExecutor.submit(() -> simpleDao.queryEntityList(entityClass, sql, params));
+    }
+
+    @Override
+    public CompletableFuture<Map> queryMap(String sql, Object... params) {
+        return asyncExecutor.submit(() -> simpleDao.queryMap(sql, params));
+    }
+
+    @Override
+    public CompletableFuture<List<Map<String, Object>>> queryMapList(String sql, Object... params) {
+        return asyncExecutor.submit(() -> simpleDao.queryMapList(sql, params));
+    }
+
+    @Override
+    public <T> CompletableFuture<PageData<T>> queryEntityPage(PageParam pageParam, Class<T> entityClass, String sql, Object... params) {
+        return asyncExecutor.submit(() -> simpleDao.queryEntityPage(pageParam, entityClass, sql, params));
+    }
+
+}
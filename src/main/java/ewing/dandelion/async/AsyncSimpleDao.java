@@ -0,0 +1,52 @@
+package ewing.dandelion.async;
+
+import ewing.dandelion.pagination.PageData;
+import ewing.dandelion.pagination.PageParam;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 异步的公共查询方法接口，返回CompletableFuture。
+ *
+ * @author Ewing
+ */
+public interface AsyncSimpleDao {
+
+    /**
+     * 获取异步执行器。
+     */
+    AsyncExecutor getAsyncExecutor();
+
+    /**
+     * 查询一个整数并封装成长整数。
+     */
+    CompletableFuture<Long> queryLong(String sql, Object... params);
+
+    /**
+     * 查询一条记录并封装成指定类型的实体对象。
+     */
+    <T> CompletableFuture<T> queryEntity(Class<T> entityClass, String sql, Object... params);
+
+    /**
+     * 查询多条记录并封装成指定类型的实体对象列表。
+     */
+    <T> CompletableFuture<List<T>> queryEntityList(Class<T> entityClass, String sql, Object... params);
+
+    /**
+     * 查询一条记录并封装成Map对象。
+     */
+    CompletableFuture<Map> queryMap(String sql, Object... params);
+
+    /**
+     * 查询多条记录并封装成Map对象列表。
+     */
+    CompletableFuture<List<Map<String, Object>>> queryMapList(String sql, Object... params);
+
+    /**
+     * 分页查询多条记录并封装成指定类型的实体对象分页数据。
+     */
+    <T> CompletableFuture<PageData<T>> queryEntityPage(PageParam pageParam, Class<T> entityClass, String sql, Object... params);
+
+}
@@ -0,0 +1,319 @@
+package ewing.dandelion.batch;
+
+import ewing.dandelion.DaoException;
+import ewing.dandelion.GenericDao;
+import ewing.dandelion.generation.EntityInfo;
+import ewing.dandelion.generation.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 自动批量加载器，收集短时间内（或达到数量上限前）的单个ID获取请求，合并成一次getBatch查询，
+ * 再把结果分发给各个等待的请求，相同的ID只查询一次，不存在的ID得到null，相同ID的其他请求得到实体对象的副本。
+ *
+ * @author Ewing
+ */
+public class AutoBatchLoader<E> implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AutoBatchLoader.class);
+
+    /**
+     * 默认的批量查询线程池，使用守护线程。
+     */
+    private static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "dandelion-auto-batch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final GenericDao<E> genericDao;
+
+    private final EntityInfo entityInfo;
+
+    private final int maxBatchSize;
+
+    private final long windowMillis;
+
+    private final ScheduledExecutorService scheduler;
+
+    private Executor executor = DEFAULT_EXECUTOR;
+
+    private List<Request<E>> pending = new ArrayList<>();
+
+    private boolean closed;
+
+    private final AtomicLong batchCount = new AtomicLong();
+
+    private final AtomicLong requestCount = new AtomicLong();
+
+    private final AtomicLong keyCount = new AtomicLong();
+
+    private final AtomicLong dispatchedCount = new AtomicLong();
+
+    private final AtomicLong waitMillis = new AtomicLong();
+
+    private volatile int lastBatchSize;
+
+    /**
+     * 等待合并的请求。
+     */
+    private static class Request<E> {
+        private final Object identity;
+        private final long createTime = System.currentTimeMillis();
+        private final CompletableFuture<E> future = new CompletableFuture<>();
+
+        private Request(Object identity) {
+            this.identity = identity;
+        }
+    }
+
+    /**
+     * 初始化加载器，第一个请求后等待windowMillis毫秒或请求数达到maxBatchSize时执行批量查询。
+     */
+    public AutoBatchLoader(GenericDao<E> genericDao, int maxBatchSize, long windowMillis) {
+        if (genericDao == null || maxBatchSize < 1 || windowMillis < 0)
+            throw new DaoException("Generic dao is empty or max batch size or window millis is invalid.");
+        this.genericDao = genericDao;
+        this.entityInfo = genericDao.getSqlGenerator().getEntityInfo(genericDao.getEntityClass());
+        if (entityInfo.getIdentities().length == 0)
+            throw new DaoException("Entity class has no identity.");
+        this.maxBatchSize = maxBatchSize;
+        this.windowMillis = windowMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "dandelion-auto-batch-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * 设置执行批量查询的执行器。
+     */
+    public AutoBatchLoader<E> setExecutor(Executor executor) {
+        if (executor == null)
+            throw new DaoException("Executor is empty.");
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * 提交根据ID或包含ID的实体或父类对象获取实体对象的请求，与同一时段的其他请求合并查询。
+     */
+    public CompletableFuture<E> load(Object identity) {
+        if (identity == null)
+            throw new DaoException("Identity is empty.");
+        Request<E> request = new Request<>(identity);
+        List<Request<E>> full = null;
+        boolean first;
+        synchronized (this) {
+            if (closed)
+                throw new DaoException("Auto batch loader is closed.");
+            pending.add(request);
+            first = pending.size() == 1;
+            if (pending.size() >= maxBatchSize) {
+                full = pending;
+                pending = new ArrayList<>();
+            }
+        }
+        requestCount.incrementAndGet();
+        if (full != null) {
+            dispatch(full);
+        } else if (first) {
+            try {
+                scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // 已关闭时计时线程已停止，立即执行
+                flush();
+            }
+        }
+        return request.future;
+    }
+
+    /**
+     * 获取实体对象，等待合并的批量查询完成。
+     */
+    public E get(Object identity) {
+        try {
+            return load(identity).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DaoException("Interrupted while loading.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new DaoException("Auto batch load failed.", e.getCause());
+        }
+    }
+
+    /**
+     * 立即执行等待中的请求。
+     */
+    public void flush() {
+        List<Request<E>> requests;
+        synchronized (this) {
+            if (pending.isEmpty())
+                return;
+            requests = pending;
+            pending = new ArrayList<>();
+        }
+        dispatch(requests);
+    }
+
+    /**
+     * 交给执行器执行批量查询。
+     */
+    private void dispatch(List<Request<E>> requests) {
+        try {
+            executor.execute(() -> execute(requests));
+        } catch (RejectedExecutionException e) {
+            for (Request<E> request : requests)
+                request.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * 合并相同的ID执行一次批量查询，按ID把结果分发给各个请求。
+     */
+    private void execute(List<Request<E>> requests) {
+        long now = System.currentTimeMillis();
+        Map<List<Object>, Object> identities = new LinkedHashMap<>();
+        for (Request<E> request : requests) {
+            identities.putIfAbsent(getKey(request.identity), toBatchIdentity(request.identity));
+            waitMillis.addAndGet(now - request.createTime);
+        }
+        batchCount.incrementAndGet();
+        dispatchedCount.addAndGet(requests.size());
+        keyCount.addAndGet(identities.size());
+        lastBatchSize = identities.size();
+        try {
+            List<E> entities = genericDao.getBatch(identities.values().toArray());
+            Map<List<Object>, E> found = new HashMap<>(entities.size() * 2);
+            for (E entity : entities)
+                found.put(normalize(EntityUtils.getEntityIds(entityInfo, entity)), entity);
+            Map<List<Object>, Boolean> delivered = new HashMap<>(found.size() * 2);
+            for (Request<E> request : requests) {
+                List<Object> key = getKey(request.identity);
+                E entity = found.get(key);
+                // 相同ID的其他请求得到副本，避免共享同一个可变对象
+                if (entity != null && delivered.put(key, Boolean.TRUE) != null)
+                    entity = copyEntity(entity);
+                request.future.complete(entity);
+            }
+        } catch (RuntimeException | Error e) {
+            LOGGER.debug("Auto batch load failed.", e);
+            for (Request<E> request : requests)
+                request.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * 复制实体对象。
+     */
+    @SuppressWarnings("unchecked")
+    private static <E> E copyEntity(E entity) {
+        E copy = (E) BeanUtils.instantiateClass(entity.getClass());
+        BeanUtils.copyProperties(entity, copy);
+        return copy;
+    }
+
+    /**
+     * 单个ID时统一使用ID值，使ID值和实体对象可在同一批中查询，联合主键时须使用实体对象。
+     */
+    private Object toBatchIdentity(Object identity) {
+        if (entityInfo.getIdentities().length == 1 && EntityUtils.isEntityOrSuper(identity, genericDao.getEntityClass()))
+            return EntityUtils.getEntityIds(entityInfo, identity)[0];
+        return identity;
+    }
+
+    /**
+     * 获取ID或包含ID的实体或父类对象的键。
+     */
+    private List<Object> getKey(Object identity) {
+        if (EntityUtils.isEntityOrSuper(identity, genericDao.getEntityClass()))
+            return normalize(EntityUtils.getEntityIds(entityInfo, identity));
+        return normalize(new Object[]{identity});
+    }
+
+    /**
+     * 数值统一转换成BigDecimal，使不同数值类型的相同ID匹配。
+     */
+    private static List<Object> normalize(Object[] identities) {
+        Object[] values = identities.clone();
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] instanceof Number)
+                values[i] = new BigDecimal(values[i].toString()).stripTrailingZeros();
+        }
+        return Arrays.asList(values);
+    }
+
+    /**
+     * 执行剩余的请求并停止计时线程。
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        flush();
+        scheduler.shutdown();
+    }
+
+    /**
+     * 获取执行的批量查询次数。
+     */
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * 获取收到的请求数。
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * 获取最近一次批量查询的ID数。
+     */
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    /**
+     * 获取平均每次批量查询的ID数。
+     */
+    public double getAverageBatchSize() {
+        long count = batchCount.get();
+        return count == 0 ? 0 : (double) keyCount.get() / count;
+    }
+
+    /**
+     * 获取请求平均等待合并的时间（毫秒）。
+     */
+    public double getAverageWaitMillis() {
+        long count = dispatchedCount.get();
+        return count == 0 ? 0 : (double) waitMillis.get() / count;
+    }
+
+}
@@ -0,0 +1,51 @@
+package ewing.dandelion.batch;
+
+/**
+ * 批量导入的结果。
+ *
+ * @author Ewing
+ */
+public class BulkLoadResult {
+    private long rows;
+
+    private long elapsedMillis;
+
+    public BulkLoadResult() {
+    }
+
+    public BulkLoadResult(long rows, long elapsedMillis) {
+        this.rows = rows;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public BulkLoadResult setRows(long rows) {
+        this.rows = rows;
+        return this;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public BulkLoadResult setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+        return this;
+    }
+
+    /**
+     * 获取每秒导入的行数。
+     */
+    public double getRowsPerSecond() {
+        return elapsedMillis == 0 ? rows * 1000.0 : rows * 1000.0 / elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkLoadResult{rows=" + rows + ", elapsedMillis=" + elapsedMillis +
+                ", rowsPerSecond=" + getRowsPerSecond() + '}';
+    }
+}
@@ -0,0 +1,301 @@
+package ewing.dandelion.batch;
+
+import ewing.dandelion.DaoException;
+import ewing.dandelion.generation.EntityInfo;
+import ewing.dandelion.generation.EntityUtils;
+import ewing.dandelion.generation.SqlGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 流式批量导入工具，从迭代器或流中逐批读取实体对象并插入数据库，不需要把全部数据放入内存。
+ * 每批生成ID后使用JDBC批处理插入，每个连接每执行若干批提交一次事务，可使用多个连接并行插入。
+ * 待插入的批次数有上限，写入较慢时读取会等待。已提交的批次在失败时不会回滚。不支持数据库自增ID的实体。
+ *
+ * @author Ewing
+ */
+public class BulkLoader {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BulkLoader.class);
+
+    private final JdbcOperations jdbcOperations;
+
+    private final SqlGenerator sqlGenerator;
+
+    private int batchSize = 1000;
+
+    private int commitBatches = 10;
+
+    private int threads = 1;
+
+    private int maxInFlight = 4;
+
+    /**
+     * 使用JdbcOperations和Sql生成器初始化。
+     */
+    public BulkLoader(JdbcOperations jdbcOperations, SqlGenerator sqlGenerator) {
+        if (jdbcOperations == null || sqlGenerator == null)
+            throw new DaoException("Jdbc operations or sql generator is empty.");
+        this.jdbcOperations = jdbcOperations;
+        this.sqlGenerator = sqlGenerator;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * 设置每批的行数。
+     */
+    public BulkLoader setBatchSize(int batchSize) {
+        if (batchSize < 1)
+            throw new DaoException("Batch size must be greater than 0.");
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public int getCommitBatches() {
+        return commitBatches;
+    }
+
+    /**
+     * 设置每个连接执行多少批后提交一次。
+     */
+    public BulkLoader setCommitBatches(int commitBatches) {
+        if (commitBatches < 1)
+            throw new DaoException("Commit batches must be greater than 0.");
+        this.commitBatches = commitBatches;
+        return this;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * 设置并行插入的连接数。
+     */
+    public BulkLoader setThreads(int threads) {
+        if (threads < 1)
+            throw new DaoException("Threads must be greater than 0.");
+        this.threads = threads;
+        return this;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * 设置已读取但未插入的最大批次数。
+     */
+    public BulkLoader setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1)
+            throw new DaoException("Max in flight must be greater than 0.");
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    /**
+     * 从流中读取实体对象并批量插入数据库。
+     */
+    public <E> BulkLoadResult load(Class<E> entityClass, Stream<E> entities) {
+        if (entities == null)
+            throw new DaoException("Entities is empty.");
+        return load(entityClass, entities.iterator());
+    }
+
+    /**
+     * 从迭代器中读取实体对象并批量插入数据库。
+     */
+    public <E> BulkLoadResult load(Class<E> entityClass, Iterator<E> entities) {
+        if (entityClass == null || entities == null)
+            throw new DaoException("Entity class or entities is empty.");
+        EntityInfo entityInfo = sqlGenerator.getEntityInfo(entityClass);
+        if (entityInfo.getAutoIncrements().length > 0)
+            throw new DaoException("Bulk load does not support database generated identity.");
+        String sql = sqlGenerator.getInsertMultiValues(entityClass, 1);
+        LOGGER.debug(sql);
+        BlockingQueue<List<E>> queue = new ArrayBlockingQueue<>(maxInFlight);
+        AtomicLong rows = new AtomicLong();
+        Loading loading = new Loading();
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "dandelion-bulk-load");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Future<?>> workers = new ArrayList<>(threads);
+        try {
+            for (int i = 0; i < threads; i++)
+                workers.add(executor.submit(() -> insertBatches(sql, entityInfo, queue, rows, loading)));
+            // 读取并逐批放入队列 队列满时等待
+            List<E> batch = new ArrayList<>(batchSize);
+            while (entities.hasNext() && !loading.failed) {
+                E entity = entities.next();
+                if (entity == null)
+                    throw new DaoException("Entity is empty.");
+                sqlGenerator.generateIdentity(entity);
+                batch.add(entity);
+                if (batch.size() == batchSize) {
+                    offer(queue, batch, loading);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty())
+                offer(queue, batch, loading);
+        } catch (RuntimeException e) {
+            loading.failed = true;
+            throw e;
+        } finally {
+            loading.finished = true;
+            awaitWorkers(workers);
+            executor.shutdown();
+        }
+        return new BulkLoadResult(rows.get(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 放入一批等待插入，插入失败时停止。
+     */
+    private <E> void offer(BlockingQueue<List<E>> queue, List<E> batch, Loading loading) {
+        try {
+            while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                if (loading.failed)
+                    return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DaoException("Interrupted while loading.", e);
+        }
+    }
+
+    /**
+     * 在一个连接中不断取出批次插入，每执行若干批提交一次。
+     */
+    private <E> void insertBatches(String sql, EntityInfo entityInfo, BlockingQueue<List<E>> queue,
+                                   AtomicLong rows, Loading loading) {
+        try {
+            jdbcOperations.execute((ConnectionCallback<Void>) connection -> {
+                boolean autoCommit = connection.getAutoCommit();
+                connection.setAutoCommit(false);
+                try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                    int uncommitted = 0;
+                    long uncommittedRows = 0;
+                    List<E> batch;
+                    while ((batch = take(queue, loading)) != null) {
+                        for (E entity : batch) {
+                            Object[] values = EntityUtils.getEntityValues(entityInfo, entity);
+                            for (int i = 0; i < values.length; i++)
+                                StatementCreatorUtils.setParameterValue(statement, i + 1, SqlTypeValue.TYPE_UNKNOWN, values[i]);
+                            statement.addBatch();
+                        }
+                        statement.executeBatch();
+                        for (E entity : batch)
+                            sqlGenerator.recordIdentity(entity);
+                        uncommittedRows += batch.size();
+                        if (++uncommitted >= commitBatches) {
+                            connection.commit();
+                            rows.addAndGet(uncommittedRows);
+                            uncommitted = 0;
+                            uncommittedRows = 0;
+                        }
+                    }
+                    if (loading.failed) {
+                        connection.rollback();
+                    } else {
+                        connection.commit();
+                        rows.addAndGet(uncommittedRows);
+                    }
+                } catch (SQLException | RuntimeException e) {
+                    rollback(connection);
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(autoCommit);
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            loading.failed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * 取出一批，读取结束且队列为空或已失败时返回null。
+     */
+    private <E> List<E> take(BlockingQueue<List<E>> queue, Loading loading) {
+        try {
+            while (!loading.failed) {
+                List<E> batch = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (batch != null)
+                    return batch;
+                if (loading.finished && queue.isEmpty())
+                    return null;
+            }
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DaoException("Interrupted while loading.", e);
+        }
+    }
+
+    /**
+     * 回滚未提交的数据。
+     */
+    private void rollback(Connection connection) {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            LOGGER.warn("Rollback failed.", e);
+        }
+    }
+
+    /**
+     * 等待所有插入线程结束，有失败时抛出异常。
+     */
+    private void awaitWorkers(List<Future<?>> workers) {
+        DaoException failure = null;
+        for (Future<?> worker : workers) {
+            try {
+                worker.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = new DaoException("Interrupted while loading.", e);
+            } catch (ExecutionException e) {
+                if (failure == null)
+                    failure = new DaoException("Bulk load failed.", e.getCause());
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * 导入过程的状态。
+     */
+    private static class Loading {
+        private volatile boolean finished;
+        private volatile boolean failed;
+    }
+
+}
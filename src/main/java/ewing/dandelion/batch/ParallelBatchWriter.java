@@ -0,0 +1,174 @@
+package ewing.dandelion.batch;
+
+import ewing.dandelion.DaoException;
+import ewing.dandelion.EntityDao;
+import ewing.dandelion.generation.EntityInfo;
+import ewing.dandelion.generation.EntityUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * 并行分区批量写入工具，把实体数组分成多个分区，在多个连接上并行执行批量添加或更新。
+ * 每个分区在独立的事务中执行，分区之间互不影响：成功的分区已提交，失败的分区已回滚。
+ * 可按ID的哈希值分区，使同一ID总在同一个分区中，避免不同分区之间的锁冲突。
+ *
+ * @author Ewing
+ */
+public class ParallelBatchWriter {
+
+    private final EntityDao entityDao;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private int partitions = 4;
+
+    private int threads = 4;
+
+    private boolean hashPartition;
+
+    /**
+     * 使用EntityDao和事务管理器初始化，事务管理器须与EntityDao使用相同的数据源。
+     */
+    public ParallelBatchWriter(EntityDao entityDao, PlatformTransactionManager transactionManager) {
+        if (entityDao == null || transactionManager == null)
+            throw new DaoException("Entity dao or transaction manager is empty.");
+        this.entityDao = entityDao;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * 设置分区数。
+     */
+    public ParallelBatchWriter setPartitions(int partitions) {
+        if (partitions < 1)
+            throw new DaoException("Partitions must be greater than 0.");
+        this.partitions = partitions;
+        return this;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * 设置并行执行的线程数，即同时使用的连接数。
+     */
+    public ParallelBatchWriter setThreads(int threads) {
+        if (threads < 1)
+            throw new DaoException("Threads must be greater than 0.");
+        this.threads = threads;
+        return this;
+    }
+
+    public boolean isHashPartition() {
+        return hashPartition;
+    }
+
+    /**
+     * 设置是否按ID的哈希值分区，否则按顺序平均分区。
+     */
+    public ParallelBatchWriter setHashPartition(boolean hashPartition) {
+        this.hashPartition = hashPartition;
+        return this;
+    }
+
+    /**
+     * 并行批量添加实体对象的全部属性到数据库。
+     */
+    public <E> PartitionResult addBatch(E... entities) {
+        return execute(entities, entityDao::addBatch);
+    }
+
+    /**
+     * 并行批量更新实体对象的全部属性到数据库。
+     */
+    public <E> PartitionResult updateBatch(E... entities) {
+        return execute(entities, entityDao::updateBatch);
+    }
+
+    /**
+     * 分区并在独立的事务中并行执行批量操作。
+     */
+    private <E> PartitionResult execute(E[] entities, Consumer<E[]> operation) {
+        if (entities == null || entities.length == 0)
+            throw new DaoException("Entities is empty.");
+        List<E[]> parts = partition(entities);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, parts.size()), runnable -> {
+            Thread thread = new Thread(runnable, "dandelion-parallel-batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>(parts.size());
+            for (E[] part : parts)
+                futures.add(executor.submit(() -> transactionTemplate.execute(status -> {
+                    operation.accept(part);
+                    return null;
+                })));
+            PartitionResult result = new PartitionResult(parts.size());
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                    result.addSucceeded(parts.get(i).length);
+                } catch (ExecutionException e) {
+                    result.addFailure(i, parts.get(i), e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DaoException("Interrupted while writing partitions.", e);
+                }
+            }
+            return result;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 把实体数组分成多个分区，按ID哈希分区时ID为空的实体按顺序分配。
+     */
+    @SuppressWarnings("unchecked")
+    private <E> List<E[]> partition(E[] entities) {
+        int count = Math.min(partitions, entities.length);
+        List<List<E>> lists = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            lists.add(new ArrayList<>(entities.length / count + 1));
+        EntityInfo entityInfo = null;
+        for (int i = 0; i < entities.length; i++) {
+            E entity = entities[i];
+            if (entity == null)
+                throw new DaoException("Entity is empty.");
+            int index;
+            if (hashPartition) {
+                if (entityInfo == null)
+                    entityInfo = entityDao.getSqlGenerator().getEntityInfo(entity.getClass());
+                Object[] ids = EntityUtils.getEntityIds(entityInfo, entity);
+                boolean empty = ids.length == 0 || Arrays.asList(ids).contains(null);
+                index = Math.floorMod(empty ? i : Arrays.hashCode(ids), count);
+            } else {
+                index = (int) ((long) i * count / entities.length);
+            }
+            lists.get(index).add(entity);
+        }
+        List<E[]> parts = new ArrayList<>(count);
+        for (List<E> list : lists) {
+            if (!list.isEmpty())
+                parts.add(list.toArray((E[]) Array.newInstance(entities.getClass().getComponentType(), list.size())));
+        }
+        return parts;
+    }
+
+}
@@ -0,0 +1,82 @@
+package ewing.dandelion.batch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 并行分区批量写入的结果，包含成功的行数和失败的分区。
+ *
+ * @author Ewing
+ */
+public class PartitionResult {
+    private final int partitions;
+
+    private long succeededRows;
+
+    private final List<Failure> failures = new ArrayList<>();
+
+    public PartitionResult(int partitions) {
+        this.partitions = partitions;
+    }
+
+    /**
+     * 失败的分区，其中的实体对象均未写入。
+     */
+    public static class Failure {
+        private final int partition;
+        private final Object[] entities;
+        private final Throwable cause;
+
+        public Failure(int partition, Object[] entities, Throwable cause) {
+            this.partition = partition;
+            this.entities = entities;
+            this.cause = cause;
+        }
+
+        public int getPartition() {
+            return partition;
+        }
+
+        public Object[] getEntities() {
+            return entities;
+        }
+
+        public Throwable getCause() {
+            return cause;
+        }
+    }
+
+    void addSucceeded(int rows) {
+        succeededRows += rows;
+    }
+
+    void addFailure(int partition, Object[] entities, Throwable cause) {
+        failures.add(new Failure(partition, entities, cause));
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    public long getSucceededRows() {
+        return succeededRows;
+    }
+
+    public List<Failure> getFailures() {
+        return Collections.unmodifiableList(failures);
+    }
+
+    /**
+     * 是否所有分区都写入成功。
+     */
+    public boolean isSuccess() {
+        return failures.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "PartitionResult{partitions=" + partitions + ", succeededRows=" + succeededRows +
+                ", failedPartitions=" + failures.size() + '}';
+    }
+}
@@ -0,0 +1,456 @@
+package ewing.dandelion.buffer;
+
+import ewing.dandelion.DaoException;
+import ewing.dandelion.EntityDao;
+import ewing.dandelion.generation.EntityInfo;
+import ewing.dandelion.generation.EntityUtils;
+import ewing.dandelion.generation.SqlGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 延迟写入缓冲区，缓存添加、更新、删除操作并在后台线程中合并成批处理执行。
+ * 同一实体（相同类型和ID）的多次写入会被合并，以最后一次写入为准。
+ * 达到数量上限或时间间隔时写入数据库，执行顺序为：删除、添加、更新，同类操作按类型先后分批。
+ * 添加使用已生成的ID通过upsertBatch写入，Sql生成器需要配置数据库方言，不支持数据库自增ID的实体。
+ * 写入失败的操作保留在缓冲区中重试，超过最大尝试次数后丢弃并记录错误日志，缓冲区已满时拒绝新的写入。
+ *
+ * @author Ewing
+ */
+public class WriteBehindBuffer implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindBuffer.class);
+
+    private final EntityDao entityDao;
+
+    private final int maxSize;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final Object flushLock = new Object();
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private Map<List<Object>, Write> pending = new LinkedHashMap<>();
+
+    private volatile boolean closed;
+
+    private final AtomicLong received = new AtomicLong();
+
+    private final AtomicLong written = new AtomicLong();
+
+    private final AtomicLong flushCount = new AtomicLong();
+
+    private final AtomicLong flushMillis = new AtomicLong();
+
+    private volatile long lastFlushMillis;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile int maxPending;
+
+    private volatile int maxAttempts = 3;
+
+    /**
+     * 写入操作类型。
+     */
+    private enum Operation {
+        ADD, UPDATE, DELETE, DELETE_ADD
+    }
+
+    /**
+     * 待执行的写入。
+     */
+    private static class Write {
+        private Operation operation;
+        private Object entity;
+        private int failures;
+
+        private Write(Operation operation, Object entity) {
+            this.operation = operation;
+            this.entity = entity;
+        }
+    }
+
+    /**
+     * 初始化缓冲区，数量达到maxSize或每隔flushInterval毫秒写入数据库。
+     */
+    public WriteBehindBuffer(EntityDao entityDao, int maxSize, long flushInterval) {
+        if (entityDao == null || maxSize < 1 || flushInterval < 1)
+            throw new DaoException("Entity dao is empty or max size or flush interval is invalid.");
+        if (entityDao.getSqlGenerator().getDialect() == null)
+            throw new DaoException("Dialect is not configured.");
+        this.entityDao = entityDao;
+        this.maxSize = maxSize;
+        this.maxPending = maxSize * 10;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "dandelion-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    /**
+     * 设置缓冲区最多保留的待写入操作数，达到后拒绝新实体的写入，默认为maxSize的10倍。
+     */
+    public WriteBehindBuffer setMaxPending(int maxPending) {
+        if (maxPending < 1)
+            throw new DaoException("Max pending is invalid.");
+        this.maxPending = maxPending;
+        return this;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * 设置每个写入操作最多尝试的次数，超过后丢弃该操作，默认为3次。
+     */
+    public WriteBehindBuffer setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1)
+            throw new DaoException("Max attempts is invalid.");
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    /**
+     * 缓存添加实体对象，ID在加入缓冲区时生成。
+     */
+    public void add(Object entity) {
+        if (entity == null)
+            throw new DaoException("Entity is empty.");
+        entityDao.getSqlGenerator().generateIdentity(entity);
+        write(Operation.ADD, entity);
+    }
+
+    /**
+     * 缓存更新实体对象的全部属性。
+     */
+    public void update(Object entity) {
+        if (entity == null)
+            throw new DaoException("Entity is empty.");
+        write(Operation.UPDATE, entity);
+    }
+
+    /**
+     * 缓存删除实体对象。
+     */
+    public void deleteEntity(Object entity) {
+        if (entity == null)
+            throw new DaoException("Entity is empty.");
+        write(Operation.DELETE, entity);
+    }
+
+    /**
+     * 合并同一实体的写入操作。
+     */
+    private void write(Operation operation, Object entity) {
+        List<Object> key = getKey(entity);
+        int size;
+        synchronized (this) {
+            // 在锁内检查，关闭后的最后一次写入不会遗漏
+            if (closed)
+                throw new DaoException("Write behind buffer is closed.");
+            Write last = pending.get(key);
+            if (last == null) {
+                if (pending.size() >= maxPending)
+                    throw new DaoException("Write behind buffer is full.");
+                pending.put(key, new Write(operation, entity));
+            } else {
+                Operation merged = merge(last.operation, operation);
+                if (merged == null) {
+                    pending.remove(key);
+                } else {
+                    last.operation = merged;
+                    last.entity = entity;
+                    last.failures = 0;
+                }
+            }
+            size = pending.size();
+        }
+        received.incrementAndGet();
+        if (size >= maxSize && flushScheduled.compareAndSet(false, true)) {
+            try {
+                scheduler.execute(this::flushQuietly);
+            } catch (RejectedExecutionException e) {
+                // 已关闭，关闭时会写入剩余的操作
+                flushScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * 合并前后两次写入，返回null表示相互抵消。
+     */
+    private static Operation merge(Operation last, Operation next) {
+        switch (next) {
+            case ADD:
+                return last == Operation.DELETE || last == Operation.DELETE_ADD ? Operation.DELETE_ADD : Operation.ADD;
+            case UPDATE:
+                // 更新不改变之前的操作类型，只替换实体对象
+                return last;
+            default:
+                return last == Operation.ADD ? null : Operation.DELETE;
+        }
+    }
+
+    /**
+     * 获取实体的类型和ID组成的键，ID必须在写入数据库前确定。
+     */
+    private List<Object> getKey(Object entity) {
+        SqlGenerator sqlGenerator = entityDao.getSqlGenerator();
+        EntityInfo entityInfo = sqlGenerator.getEntityInfo(entity.getClass());
+        if (entityInfo.getAutoIncrements().length > 0)
+            throw new DaoException("Write behind buffer does not support database generated identity.");
+        Object[] ids = EntityUtils.getEntityIds(entityInfo, entity);
+        if (ids.length == 0)
+            throw new DaoException("Entity class has no identity.");
+        for (Object id : ids)
+            if (id == null)
+                throw new DaoException("Entity identity is empty.");
+        List<Object> key = new ArrayList<>(ids.length + 1);
+        key.add(entity.getClass());
+        key.addAll(Arrays.asList(ids));
+        return key;
+    }
+
+    /**
+     * 将缓冲区中的写入操作按类型分组批量写入数据库，某一批失败时继续写入其他批次，
+     * 失败的操作放回缓冲区等待下次写入，超过最大尝试次数后丢弃，最后抛出第一个异常。
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            flushScheduled.set(false);
+            Map<List<Object>, Write> writes;
+            synchronized (this) {
+                if (pending.isEmpty())
+                    return;
+                writes = pending;
+                pending = new LinkedHashMap<>();
+            }
+            long start = System.currentTimeMillis();
+            int total = writes.size();
+            Map<Class, List<Map.Entry<List<Object>, Write>>> deletes = new LinkedHashMap<>();
+            Map<Class, List<Map.Entry<List<Object>, Write>>> adds = new LinkedHashMap<>();
+            Map<Class, List<Map.Entry<List<Object>, Write>>> updates = new LinkedHashMap<>();
+            for (Map.Entry<List<Object>, Write> entry : writes.entrySet()) {
+                Write write = entry.getValue();
+                Class entityClass = write.entity.getClass();
+                if (write.operation == Operation.DELETE || write.operation == Operation.DELETE_ADD)
+                    deletes.computeIfAbsent(entityClass, newClass -> new ArrayList<>()).add(entry);
+                if (write.operation == Operation.ADD || write.operation == Operation.DELETE_ADD)
+                    adds.computeIfAbsent(entityClass, newClass -> new ArrayList<>()).add(entry);
+                if (write.operation == Operation.UPDATE)
+                    updates.computeIfAbsent(entityClass, newClass -> new ArrayList<>()).add(entry);
+            }
+            Map<List<Object>, Write> remaining = new LinkedHashMap<>(writes);
+            RuntimeException failure;
+            try {
+                failure = write(deletes, adds, updates, remaining);
+            } catch (Error e) {
+                requeue(remaining);
+                throw e;
+            }
+            if (failure != null) {
+                requeue(remaining);
+                written.addAndGet(total - remaining.size());
+                throw failure;
+            }
+            written.addAndGet(total);
+            lastFlushMillis = System.currentTimeMillis() - start;
+            flushMillis.addAndGet(lastFlushMillis);
+            flushCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * 依次执行删除、添加、更新，成功后从剩余操作中移除，返回第一个异常。
+     */
+    private RuntimeException write(Map<Class, List<Map.Entry<List<Object>, Write>>> deletes,
+                                   Map<Class, List<Map.Entry<List<Object>, Write>>> adds,
+                                   Map<Class, List<Map.Entry<List<Object>, Write>>> updates,
+                                   Map<List<Object>, Write> remaining) {
+        RuntimeException failure = null;
+        for (List<Map.Entry<List<Object>, Write>> entries : deletes.values()) {
+            failure = execute(entries, remaining, failure, entityDao::deleteBatch, entry -> {
+                // 已删除的再添加操作只剩下添加
+                if (entry.getValue().operation == Operation.DELETE_ADD)
+                    entry.getValue().operation = Operation.ADD;
+                else
+                    remaining.remove(entry.getKey());
+            });
+        }
+        for (List<Map.Entry<List<Object>, Write>> entries : adds.values()) {
+            // 删除失败的再添加操作等待删除成功后再添加
+            entries.removeIf(entry -> entry.getValue().operation != Operation.ADD);
+            if (!entries.isEmpty())
+                failure = execute(entries, remaining, failure, entityDao::upsertBatch,
+                        entry -> remaining.remove(entry.getKey()));
+        }
+        for (List<Map.Entry<List<Object>, Write>> entries : updates.values())
+            failure = execute(entries, remaining, failure, entityDao::updateBatch,
+                    entry -> remaining.remove(entry.getKey()));
+        return failure;
+    }
+
+    /**
+     * 批量写入一组操作，失败时逐个写入找出失败的操作，避免一个无效的操作阻塞同一批的其他操作，返回第一个异常。
+     */
+    private RuntimeException execute(List<Map.Entry<List<Object>, Write>> entries, Map<List<Object>, Write> remaining,
+                                     RuntimeException failure, Consumer<Object[]> batch,
+                                     Consumer<Map.Entry<List<Object>, Write>> done) {
+        try {
+            batch.accept(getEntities(entries));
+            entries.forEach(done);
+            return failure;
+        } catch (RuntimeException e) {
+            if (entries.size() == 1)
+                return failed(entries.get(0), remaining, failure, e);
+        }
+        for (Map.Entry<List<Object>, Write> entry : entries) {
+            try {
+                batch.accept(new Object[]{entry.getValue().entity});
+                done.accept(entry);
+            } catch (RuntimeException e) {
+                failure = failed(entry, remaining, failure, e);
+            }
+        }
+        return failure;
+    }
+
+    /**
+     * 记录操作的失败次数，达到最大尝试次数时丢弃该操作，返回第一个异常。
+     */
+    private RuntimeException failed(Map.Entry<List<Object>, Write> entry, Map<List<Object>, Write> remaining,
+                                    RuntimeException failure, RuntimeException e) {
+        Write write = entry.getValue();
+        if (++write.failures >= maxAttempts) {
+            remaining.remove(entry.getKey());
+            dropped.incrementAndGet();
+            LOGGER.error("Write behind " + write.operation + " of " + entry.getKey()
+                    + " dropped after " + write.failures + " attempts.", e);
+        }
+        return failure == null ? e : failure;
+    }
+
+    /**
+     * 获取写入操作中的实体对象。
+     */
+    private static Object[] getEntities(List<Map.Entry<List<Object>, Write>> entries) {
+        Object[] entities = new Object[entries.size()];
+        for (int i = 0; i < entities.length; i++)
+            entities[i] = entries.get(i).getValue().entity;
+        return entities;
+    }
+
+    /**
+     * 把未写入的操作放回缓冲区，写入期间产生的新操作在后，按顺序合并，不会被旧的操作覆盖。
+     */
+    private synchronized void requeue(Map<List<Object>, Write> unwritten) {
+        if (unwritten.isEmpty())
+            return;
+        Map<List<Object>, Write> merged = new LinkedHashMap<>(unwritten);
+        for (Map.Entry<List<Object>, Write> entry : pending.entrySet()) {
+            Write last = merged.get(entry.getKey());
+            Write next = entry.getValue();
+            if (last == null) {
+                merged.put(entry.getKey(), next);
+                continue;
+            }
+            Operation operation = merge(last.operation, next.operation);
+            if (operation == null) {
+                merged.remove(entry.getKey());
+            } else {
+                last.operation = operation;
+                last.entity = next.entity;
+                // 新的写入替换了实体对象，重新计算尝试次数
+                last.failures = 0;
+            }
+        }
+        pending = merged;
+    }
+
+    /**
+     * 后台写入，失败时记录日志。
+     */
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            LOGGER.error("Write behind flush failed, unwritten operations will be retried.", e);
+        }
+    }
+
+    /**
+     * 停止后台写入并把剩余的操作写入数据库。
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * 获取缓冲区中等待写入的操作数。
+     */
+    public synchronized int getQueueDepth() {
+        return pending.size();
+    }
+
+    /**
+     * 获取超过最大尝试次数被丢弃的操作数。
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * 获取最近一次写入的用时（毫秒）。
+     */
+    public long getLastFlushMillis() {
+        return lastFlushMillis;
+    }
+
+    /**
+     * 获取平均每次写入的用时（毫秒）。
+     */
+    public double getAverageFlushMillis() {
+        long count = flushCount.get();
+        return count == 0 ? 0 : (double) flushMillis.get() / count;
+    }
+
+    /**
+     * 获取合并率，即接收的操作数与实际写入数据库的操作数之比。
+     */
+    public double getCoalescingRatio() {
+        long count = written.get();
+        return count == 0 ? 0 : (double) received.get() / count;
+    }
+
+}
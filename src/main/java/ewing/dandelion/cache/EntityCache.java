@@ -0,0 +1,35 @@
+package ewing.dandelion.cache;
+
+/**
+ * 实体对象缓存，按ID组成的键缓存同一类型的实体对象，实现须线程安全。
+ *
+ * @author Ewing
+ */
+public interface EntityCache {
+
+    /**
+     * 获取缓存的实体对象，不存在或已过期时返回null。
+     */
+    Object get(Object key);
+
+    /**
+     * 缓存实体对象。
+     */
+    void put(Object key, Object entity);
+
+    /**
+     * 移除缓存的实体对象。
+     */
+    void remove(Object key);
+
+    /**
+     * 清空缓存。
+     */
+    void clear();
+
+    /**
+     * 获取缓存的统计信息。
+     */
+    CacheStats getStats();
+
+}
@@ -0,0 +1,115 @@
+package ewing.dandelion.cache;
+
+import ewing.dandelion.DaoException;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 已存在ID的布隆过滤器，判断为不存在的ID一定不存在，判断为存在的ID可能不存在。
+ * 删除的ID不会从过滤器中移除，只会增加误判率，不影响正确性。
+ *
+ * @author Ewing
+ */
+public class IdentityFilter {
+
+    private final AtomicLongArray bits;
+
+    private final long bitSize;
+
+    private final int hashes;
+
+    private volatile boolean ready;
+
+    /**
+     * 根据预计的ID数量和可接受的误判率初始化。
+     */
+    public IdentityFilter(long expectedSize, double falsePositiveRate) {
+        if (expectedSize < 1 || falsePositiveRate <= 0 || falsePositiveRate >= 1)
+            throw new DaoException("Expected size or false positive rate is invalid.");
+        double optimal = -expectedSize * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        long words = Math.max(1, ((long) Math.ceil(optimal) + 63) / 64);
+        if (words > Integer.MAX_VALUE)
+            throw new DaoException("Expected size is too large.");
+        this.bits = new AtomicLongArray((int) words);
+        this.bitSize = words * 64;
+        this.hashes = Math.max(1, (int) Math.round((double) bitSize / expectedSize * Math.log(2)));
+    }
+
+    /**
+     * 记录存在的ID。
+     */
+    public void put(Object[] identities) {
+        long hash1 = hash(identities);
+        long hash2 = mix(hash1);
+        for (int i = 1; i <= hashes; i++) {
+            long index = ((hash1 + i * hash2) & Long.MAX_VALUE) % bitSize;
+            int word = (int) (index >>> 6);
+            long mask = 1L << (index & 63);
+            long old;
+            do {
+                old = bits.get(word);
+                if ((old & mask) != 0)
+                    break;
+            } while (!bits.compareAndSet(word, old, old | mask));
+        }
+    }
+
+    /**
+     * 判断ID是否可能存在，过滤器未初始化完成时总是返回true。
+     */
+    public boolean mightContain(Object[] identities) {
+        if (!ready)
+            return true;
+        long hash1 = hash(identities);
+        long hash2 = mix(hash1);
+        for (int i = 1; i <= hashes; i++) {
+            long index = ((hash1 + i * hash2) & Long.MAX_VALUE) % bitSize;
+            if ((bits.get((int) (index >>> 6)) & (1L << (index & 63))) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * 标记已记录全部存在的ID，之后才能判断ID不存在。
+     */
+    public void setReady(boolean ready) {
+        this.ready = ready;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 使用FNV-1a计算ID的哈希值，不同的数字类型按相同的字符串形式处理。
+     */
+    private static long hash(Object[] identities) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < identities.length; i++) {
+            Object identity = identities[i];
+            if (identity instanceof BigDecimal)
+                identity = ((BigDecimal) identity).stripTrailingZeros().toPlainString();
+            String value = i == 0 ? String.valueOf(identity) : "\u0001" + identity;
+            for (int c = 0; c < value.length(); c++) {
+                hash ^= value.charAt(c);
+                hash *= 0x100000001b3L;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * 由第一个哈希值生成第二个哈希值。
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash | 1;
+    }
+
+}
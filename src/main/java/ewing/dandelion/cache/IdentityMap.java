@@ -0,0 +1,146 @@
+package ewing.dandelion.cache;
+
+import ewing.dandelion.DaoException;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 标识映射，在一个作用域或事务内按ID保存已获取的实体对象，重复get或getBatch时返回同一个实例。
+ * 写入实体时移除对应的实例，作用域结束或事务完成时清空，只在当前线程中使用。
+ *
+ * @author Ewing
+ */
+public class IdentityMap {
+
+    private static final ThreadLocal<IdentityMap> SCOPE = new ThreadLocal<>();
+
+    private final Map<Class, Map<List<Object>, Object>> entities = new HashMap<>();
+
+    private int depth;
+
+    /**
+     * 标识映射的作用域，关闭时结束。
+     */
+    public static class Scope implements AutoCloseable {
+        private final IdentityMap identityMap;
+
+        private Scope(IdentityMap identityMap) {
+            this.identityMap = identityMap;
+        }
+
+        public IdentityMap getIdentityMap() {
+            return identityMap;
+        }
+
+        /**
+         * 结束作用域，嵌套的作用域在最外层结束时清空。
+         */
+        @Override
+        public void close() {
+            if (--identityMap.depth == 0) {
+                identityMap.entities.clear();
+                SCOPE.remove();
+            }
+        }
+    }
+
+    /**
+     * 在当前线程中开始一个作用域，已在作用域中时共用同一个标识映射。
+     */
+    public static Scope open() {
+        IdentityMap identityMap = SCOPE.get();
+        if (identityMap == null) {
+            identityMap = new IdentityMap();
+            SCOPE.set(identityMap);
+        }
+        identityMap.depth++;
+        return new Scope(identityMap);
+    }
+
+    /**
+     * 为当前的Spring事务绑定标识映射，事务完成时清空，已绑定时返回已有的标识映射。
+     */
+    public static IdentityMap openInTransaction() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive())
+            throw new DaoException("No active transaction synchronization.");
+        IdentityMap bound = (IdentityMap) TransactionSynchronizationManager.getResource(IdentityMap.class);
+        if (bound != null)
+            return bound;
+        IdentityMap identityMap = new IdentityMap();
+        TransactionSynchronizationManager.bindResource(IdentityMap.class, identityMap);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void suspend() {
+                TransactionSynchronizationManager.unbindResourceIfPossible(IdentityMap.class);
+            }
+
+            @Override
+            public void resume() {
+                TransactionSynchronizationManager.bindResource(IdentityMap.class, identityMap);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(IdentityMap.class);
+                identityMap.entities.clear();
+            }
+        });
+        return identityMap;
+    }
+
+    /**
+     * 获取当前线程的作用域或事务中的标识映射，没有时返回null。
+     */
+    public static IdentityMap current() {
+        IdentityMap identityMap = SCOPE.get();
+        if (identityMap == null && TransactionSynchronizationManager.isSynchronizationActive())
+            identityMap = (IdentityMap) TransactionSynchronizationManager.getResource(IdentityMap.class);
+        return identityMap;
+    }
+
+    /**
+     * 获取已保存的实体对象，不存在时返回null。
+     */
+    public Object get(Class entityClass, List<Object> key) {
+        Map<List<Object>, Object> instances = entities.get(entityClass);
+        return instances == null ? null : instances.get(key);
+    }
+
+    /**
+     * 保存实体对象。
+     */
+    public void put(Class entityClass, List<Object> key, Object entity) {
+        entities.computeIfAbsent(entityClass, newClass -> new HashMap<>()).put(key, entity);
+    }
+
+    /**
+     * 移除实体对象。
+     */
+    public void remove(Class entityClass, List<Object> key) {
+        Map<List<Object>, Object> instances = entities.get(entityClass);
+        if (instances != null)
+            instances.remove(key);
+    }
+
+    /**
+     * 移除实体类型的全部实体对象。
+     */
+    public void clear(Class entityClass) {
+        entities.remove(entityClass);
+    }
+
+    /**
+     * 获取保存的实体对象数量。
+     */
+    public int size() {
+        int size = 0;
+        for (Map<List<Object>, Object> instances : entities.values())
+            size += instances.size();
+        return size;
+    }
+
+}
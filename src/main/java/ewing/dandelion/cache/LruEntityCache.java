@@ -0,0 +1,97 @@
+package ewing.dandelion.cache;
+
+import ewing.dandelion.DaoException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 基于LRU淘汰和过期时间的实体对象缓存。
+ *
+ * @author Ewing
+ */
+public class LruEntityCache implements EntityCache {
+
+    private final int maxSize;
+
+    private final long expireMillis;
+
+    private final LinkedHashMap<Object, Entry> entries;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    /**
+     * 缓存的实体对象及过期时间。
+     */
+    private static class Entry {
+        private final Object entity;
+        private final long expireAt;
+
+        private Entry(Object entity, long expireAt) {
+            this.entity = entity;
+            this.expireAt = expireAt;
+        }
+    }
+
+    /**
+     * 初始化缓存，最多缓存maxSize个实体，expireMillis毫秒后过期，小于1表示不过期。
+     */
+    public LruEntityCache(int maxSize, long expireMillis) {
+        if (maxSize < 1)
+            throw new DaoException("Max size must be greater than 0.");
+        this.maxSize = maxSize;
+        this.expireMillis = expireMillis;
+        this.entries = new LinkedHashMap<Object, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {
+                if (size() > LruEntityCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public synchronized Object get(Object key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expireAt > 0 && entry.expireAt < System.currentTimeMillis()) {
+            entries.remove(key);
+            evictions++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.entity;
+    }
+
+    @Override
+    public synchronized void put(Object key, Object entity) {
+        long expireAt = expireMillis > 0 ? System.currentTimeMillis() + expireMillis : 0;
+        entries.put(key, new Entry(entity, expireAt));
+    }
+
+    @Override
+    public synchronized void remove(Object key) {
+        entries.remove(key);
+    }
+
+    @Override
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    @Override
+    public synchronized CacheStats getStats() {
+        return new CacheStats(hits, misses, evictions, entries.size());
+    }
+
+}
@@ -0,0 +1,178 @@
+package ewing.dandelion.cache;
+
+import ewing.dandelion.DaoException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 查询结果缓存，按Sql和参数缓存查询结果，限制缓存的总行数并按LRU淘汰。
+ * 每个结果记录Sql中引用的表名，写入这些表时按表名使结果失效。
+ *
+ * @author Ewing
+ */
+public class QueryCache {
+
+    /**
+     * 匹配FROM或JOIN后面的表名，包括逗号分隔的多个表。
+     */
+    private static final Pattern TABLE_PATTERN = Pattern.compile(
+            "\\b(?:FROM|JOIN)\\s+([\\w.]+(?:\\s+(?:AS\\s+)?\\w+)?(?:\\s*,\\s*[\\w.]+(?:\\s+(?:AS\\s+)?\\w+)?)*)",
+            Pattern.CASE_INSENSITIVE);
+
+    private final long maxRows;
+
+    private final long ttlMillis;
+
+    private final LinkedHashMap<List<Object>, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long rows;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    /**
+     * 缓存的查询结果。
+     */
+    private static class Entry {
+        private final Object result;
+        private final long rows;
+        private final long expireAt;
+        private final Set<String> tables;
+
+        private Entry(Object result, long rows, long expireAt, Set<String> tables) {
+            this.result = result;
+            this.rows = rows;
+            this.expireAt = expireAt;
+            this.tables = tables;
+        }
+    }
+
+    /**
+     * 初始化缓存，最多缓存maxRows行结果，默认ttlMillis毫秒后过期。
+     */
+    public QueryCache(long maxRows, long ttlMillis) {
+        if (maxRows < 1 || ttlMillis < 1)
+            throw new DaoException("Max rows and ttl must be greater than 0.");
+        this.maxRows = maxRows;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * 根据结果类型、Sql和参数生成缓存的键。
+     */
+    public static List<Object> getKey(Class resultClass, String sql, Object... params) {
+        List<Object> key = new ArrayList<>(params.length + 2);
+        key.add(resultClass);
+        key.add(sql);
+        for (Object param : params)
+            key.add(param instanceof byte[] ? Arrays.toString((byte[]) param) : param);
+        return key;
+    }
+
+    /**
+     * 获取Sql中引用的表名，统一为大写。
+     */
+    public static Set<String> getTables(String sql) {
+        Set<String> tables = new HashSet<>();
+        Matcher matcher = TABLE_PATTERN.matcher(sql);
+        while (matcher.find()) {
+            for (String table : matcher.group(1).split(",")) {
+                String name = table.trim().split("\\s+")[0];
+                tables.add(name.substring(name.lastIndexOf('.') + 1).toUpperCase(Locale.US));
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * 获取缓存的查询结果，不存在或已过期时返回null。
+     */
+    public synchronized Object get(List<Object> key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expireAt < System.currentTimeMillis()) {
+            remove(key);
+            evictions++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.result;
+    }
+
+    /**
+     * 缓存查询结果，rows为结果的行数，ttlMillis小于1时使用默认的有效时间。
+     */
+    public synchronized void put(List<Object> key, Object result, long rows, long ttlMillis, String sql) {
+        // 超过总行数的结果不缓存
+        if (rows > maxRows)
+            return;
+        remove(key);
+        long expireAt = System.currentTimeMillis() + (ttlMillis > 0 ? ttlMillis : this.ttlMillis);
+        entries.put(key, new Entry(result, rows, expireAt, getTables(sql)));
+        this.rows += rows;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (this.rows > maxRows && iterator.hasNext()) {
+            this.rows -= iterator.next().rows;
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * 移除缓存的结果。
+     */
+    public synchronized void remove(List<Object> key) {
+        Entry entry = entries.remove(key);
+        if (entry != null)
+            rows -= entry.rows;
+    }
+
+    /**
+     * 使引用了该表的查询结果全部失效。
+     */
+    public synchronized void invalidate(String table) {
+        if (table == null)
+            return;
+        String name = table.substring(table.lastIndexOf('.') + 1).toUpperCase(Locale.US);
+        Iterator<Map.Entry<List<Object>, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entry.tables.contains(name)) {
+                rows -= entry.rows;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 清空缓存。
+     */
+    public synchronized void clear() {
+        entries.clear();
+        rows = 0;
+    }
+
+    /**
+     * 获取缓存的统计信息，大小为缓存的总行数。
+     */
+    public synchronized CacheStats getStats() {
+        return new CacheStats(hits, misses, evictions, rows);
+    }
+
+}
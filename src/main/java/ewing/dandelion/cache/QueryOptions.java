@@ -0,0 +1,42 @@
+package ewing.dandelion.cache;
+
+/**
+ * 查询选项，配置是否使用查询结果缓存及缓存的有效时间。
+ *
+ * @author Ewing
+ **/
+public class QueryOptions {
+    private boolean cache = true;
+    private long ttlMillis = 0;
+
+    public QueryOptions() {
+    }
+
+    public QueryOptions(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    public QueryOptions(boolean cache, long ttlMillis) {
+        this.cache = cache;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public boolean isCache() {
+        return cache;
+    }
+
+    public void setCache(boolean cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * 获取缓存的有效时间（毫秒），小于1时使用查询缓存的默认值。
+     */
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public void setTtlMillis(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+}
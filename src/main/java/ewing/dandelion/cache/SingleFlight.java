@@ -0,0 +1,117 @@
+package ewing.dandelion.cache;
+
+import ewing.dandelion.DaoException;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * 合并并发的相同读取，同一个键同时只执行一次加载，其他线程等待并共享该结果。
+ * 登记表按键的哈希分段加锁，不同段的键互不竞争。
+ *
+ * @author Ewing
+ */
+public class SingleFlight {
+
+    private final Stripe[] stripes;
+
+    private final AtomicLong flights = new AtomicLong();
+
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * 使用默认的分段数初始化。
+     */
+    public SingleFlight() {
+        this(64);
+    }
+
+    /**
+     * 指定分段数初始化，实际分段数为不小于该值的2的幂。
+     */
+    public SingleFlight(int stripes) {
+        if (stripes < 1 || stripes > 1 << 16)
+            throw new DaoException("Stripes must be in [1, 65536].");
+        int size = Integer.highestOneBit(stripes);
+        if (size < stripes)
+            size <<= 1;
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++)
+            this.stripes[i] = new Stripe();
+    }
+
+    /**
+     * 分段的登记表。
+     */
+    private static class Stripe {
+        private final Map<Object, CompletableFuture<Object>> flights = new HashMap<>();
+    }
+
+    /**
+     * 执行或等待键对应的加载，等待的线程得到结果经shareCopier处理后的副本，结果为null时不复制。
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(Object key, Supplier<T> loader, UnaryOperator<T> shareCopier) {
+        if (key == null || loader == null)
+            throw new DaoException("Key or loader is empty.");
+        int hash = key.hashCode();
+        Stripe stripe = stripes[(hash ^ hash >>> 16) & (stripes.length - 1)];
+        CompletableFuture<Object> flight;
+        boolean leader = false;
+        synchronized (stripe) {
+            flight = stripe.flights.get(key);
+            if (flight == null) {
+                flight = new CompletableFuture<>();
+                stripe.flights.put(key, flight);
+                leader = true;
+            }
+        }
+        if (!leader) {
+            coalesced.incrementAndGet();
+            T shared;
+            try {
+                shared = (T) flight.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                if (e.getCause() instanceof Error)
+                    throw (Error) e.getCause();
+                throw e;
+            }
+            return shared == null || shareCopier == null ? shared : shareCopier.apply(shared);
+        }
+        flights.incrementAndGet();
+        try {
+            T result = loader.get();
+            flight.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            synchronized (stripe) {
+                stripe.flights.remove(key);
+            }
+        }
+    }
+
+    /**
+     * 获取实际执行的加载次数。
+     */
+    public long getFlights() {
+        return flights.get();
+    }
+
+    /**
+     * 获取被合并而没有执行的读取次数。
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+}
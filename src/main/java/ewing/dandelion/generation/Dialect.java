@@ -0,0 +1,12 @@
+package ewing.dandelion.generation;
+
+/**
+ * 数据库方言，用于生成各数据库特有的语句。
+ *
+ * @author Ewing
+ */
+public enum Dialect {
+    H2,
+    MYSQL,
+    POSTGRESQL
+}
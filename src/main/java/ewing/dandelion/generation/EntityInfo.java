@@ -25,6 +25,10 @@ public class EntityInfo {
 
     private Property[] identities;
 
+    private Property[] insertProperties;
+
+    private Property[] autoIncrements;
+
     /**
      * 初始化实体信息。
      */
@@ -50,6 +54,8 @@ public class EntityInfo {
         PropertyDescriptor[] descriptors = beanInfo.getPropertyDescriptors();
         List<Property> properties = new ArrayList<>(descriptors.length);
         List<Property> identities = new ArrayList<>(3);
+        List<Property> insertProperties = new ArrayList<>(descriptors.length);
+        List<Property> autoIncrements = new ArrayList<>(1);
         for (PropertyDescriptor descriptor : descriptors) {
             // 需要可用的属性
             if (descriptor.getWriteMethod() == null || descriptor.getReadMethod() == null)
@@ -62,11 +68,18 @@ public class EntityInfo {
             properties.add(property);
             if (property.isIdentity())
                 identities.add(property);
+            // 数据库生成的ID不插入
+            if (property.isAutoIncrement())
+                autoIncrements.add(property);
+            else
+                insertProperties.add(property);
         }
         if (properties.size() == 0)
             throw new DaoException("Entity class has no property available.");
         this.properties = properties.toArray(new Property[properties.size()]);
         this.identities = identities.toArray(new Property[identities.size()]);
+        this.insertProperties = insertProperties.toArray(new Property[insertProperties.size()]);
+        this.autoIncrements = autoIncrements.toArray(new Property[autoIncrements.size()]);
     }
 
     /**
@@ -97,4 +110,18 @@ public class EntityInfo {
         return identities;
     }
 
+    /**
+     * 获取插入时使用的属性，不包含由数据库生成的ID。
+     */
+    public Property[] getInsertProperties() {
+        return insertProperties;
+    }
+
+    /**
+     * 获取由数据库生成的ID属性。
+     */
+    public Property[] getAutoIncrements() {
+        return autoIncrements;
+    }
+
 }
@@ -1,9 +1,13 @@
 package ewing.dandelion.generation;
 
 import ewing.dandelion.DaoException;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.NumberUtils;
 
 import java.lang.reflect.Field;
+import java.util.BitSet;
 import java.util.Locale;
+import java.util.Map;
 
 /**
  * 实体类型属性处理器。
@@ -122,4 +126,115 @@ public class EntityUtils {
         return params;
     }
 
+    /**
+     * 从对象中获取实体插入属性的值，不包含由数据库生成的ID。
+     */
+    public static Object[] getEntityValues(EntityInfo entityInfo, Object entity) {
+        Property[] properties = entityInfo.getInsertProperties();
+        Object[] values = new Object[properties.length];
+        for (int i = 0; i < properties.length; i++) {
+            try {
+                values[i] = properties[i].getReadMethod().invoke(entity);
+            } catch (ReflectiveOperationException e) {
+                throw new DaoException("Failed to read entity property value.", e);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * 从对象数组的指定范围中依次获取实体插入属性的值，用于多行插入。
+     */
+    public static Object[] getEntitiesValues(EntityInfo entityInfo, Object[] entities, int from, int count) {
+        Property[] properties = entityInfo.getInsertProperties();
+        Object[] params = new Object[count * properties.length];
+        int index = 0;
+        for (int i = from; i < from + count; i++) {
+            for (Property property : properties) {
+                try {
+                    params[index++] = property.getReadMethod().invoke(entities[i]);
+                } catch (ReflectiveOperationException e) {
+                    throw new DaoException("Failed to read entity property value.", e);
+                }
+            }
+        }
+        return params;
+    }
+
+    /**
+     * 从对象数组的指定范围中获取按CASE语句批量更新的参数，与多行Update语句的参数顺序对应。
+     */
+    public static Object[] getUpdateCaseParams(EntityInfo entityInfo, BitSet mask, Object[] entities, int from, int count) {
+        Property[] properties = entityInfo.getProperties();
+        int identities = entityInfo.getIdentities().length;
+        Object[] ids = new Object[count * identities];
+        for (int i = 0; i < count; i++)
+            System.arraycopy(getEntityIds(entityInfo, entities[from + i]), 0, ids, i * identities, identities);
+        Object[] params = new Object[mask.cardinality() * count * (identities + 1) + ids.length];
+        int index = 0;
+        for (int p = mask.nextSetBit(0); p >= 0; p = mask.nextSetBit(p + 1)) {
+            for (int i = 0; i < count; i++) {
+                System.arraycopy(ids, i * identities, params, index, identities);
+                index += identities;
+                try {
+                    params[index++] = properties[p].getReadMethod().invoke(entities[from + i]);
+                } catch (ReflectiveOperationException e) {
+                    throw new DaoException("Failed to read entity property value.", e);
+                }
+            }
+        }
+        System.arraycopy(ids, 0, params, index, ids.length);
+        return params;
+    }
+
+    /**
+     * 从对象中获取键集分页的条件参数，与ID大于条件的参数顺序对应。
+     */
+    public static Object[] getKeysetIds(EntityInfo entityInfo, Object entity) {
+        Object[] ids = getEntityIds(entityInfo, entity);
+        Object[] params = new Object[ids.length * (ids.length + 1) / 2];
+        int index = 0;
+        for (int i = 0; i < ids.length; i++)
+            for (int j = 0; j <= i; j++)
+                params[index++] = ids[j];
+        return params;
+    }
+
+    /**
+     * 把数据库生成的ID写回实体对象，按列名匹配，只有一个生成的ID时使用第一个值。
+     */
+    @SuppressWarnings("unchecked")
+    public static void setGeneratedKeys(EntityInfo entityInfo, Object entity, Map<String, Object> keys) {
+        Property[] properties = entityInfo.getAutoIncrements();
+        if (properties.length == 0 || keys == null || keys.isEmpty())
+            return;
+        for (Property property : properties) {
+            Object value = null;
+            for (Map.Entry<String, Object> entry : keys.entrySet()) {
+                if (property.getSqlName().equalsIgnoreCase(entry.getKey())) {
+                    value = entry.getValue();
+                    break;
+                }
+            }
+            // 部分数据库返回的列名与ID列名不同
+            if (value == null && properties.length == 1)
+                value = keys.values().iterator().next();
+            if (value == null)
+                continue;
+            Class type = ClassUtils.resolvePrimitiveIfNecessary(property.getType());
+            try {
+                if (Number.class.isAssignableFrom(type) && value instanceof Number) {
+                    value = NumberUtils.convertNumberToTargetClass((Number) value, type);
+                } else if (String.class == type) {
+                    value = value.toString();
+                } else if (!type.isInstance(value)) {
+                    throw new DaoException("Can not convert generated key to identity type.");
+                }
+                property.getWriteMethod().invoke(entity, value);
+            } catch (ReflectiveOperationException e) {
+                throw new DaoException("Set generated key failed.", e);
+            }
+        }
+    }
+
 }
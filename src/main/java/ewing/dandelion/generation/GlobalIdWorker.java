@@ -72,6 +72,20 @@ public class GlobalIdWorker {
         return nextBigInteger().toString(36);
     }
 
+    /**
+     * 获取ID中的累加数（低23位），累加数均匀分布，可用于分片。
+     */
+    public static int getCounter(BigInteger id) {
+        return id.intValue() & counterMask;
+    }
+
+    /**
+     * 获取36进制字符串ID中的累加数（低23位）。
+     */
+    public static int getCounter(String id) {
+        return getCounter(new BigInteger(id, 36));
+    }
+
     /**
      * 获取机器标识的HashCode。
      */
@@ -27,6 +27,8 @@ public class Property {
 
     private boolean generate;
 
+    private boolean autoIncrement;
+
     /**
      * 初始化属性信息。
      */
@@ -44,9 +46,11 @@ public class Property {
         if (identity == null) {
             this.identity = false;
             this.generate = false;
+            this.autoIncrement = false;
         } else {
             this.identity = true;
-            this.generate = identity.generate();
+            this.autoIncrement = identity.autoIncrement();
+            this.generate = identity.generate() && !this.autoIncrement;
         }
     }
 
@@ -82,4 +86,8 @@ public class Property {
         return generate;
     }
 
+    public boolean isAutoIncrement() {
+        return autoIncrement;
+    }
+
 }
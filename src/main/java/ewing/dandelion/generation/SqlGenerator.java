@@ -1,9 +1,19 @@
 package ewing.dandelion.generation;
 
 import ewing.dandelion.DaoException;
+import ewing.dandelion.annotation.Cached;
+import ewing.dandelion.cache.EntityCache;
+import ewing.dandelion.cache.IdentityFilter;
+import ewing.dandelion.cache.LruEntityCache;
+import ewing.dandelion.cache.QueryCache;
 
 import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 基于实体类型和属性生成Sql语句。
@@ -18,16 +28,72 @@ public class SqlGenerator {
      */
     private final ConcurrentHashMap<Class, EntityInfo> entityInfoCache = new ConcurrentHashMap<>();
 
+    /**
+     * 多行插入语句缓存，按实体类型和行数缓存。
+     */
+    private final ConcurrentHashMap<Class, ConcurrentHashMap<Integer, String>> multiValuesCache = new ConcurrentHashMap<>();
+
+    /**
+     * 按属性掩码生成的更新语句缓存，按实体类型和掩码缓存。
+     */
+    private final ConcurrentHashMap<Class, ConcurrentHashMap<BitSet, String>> updateMaskCache = new ConcurrentHashMap<>();
+
+    /**
+     * 实体对象二级缓存，未启用缓存的实体类型对应空值。
+     */
+    private final ConcurrentHashMap<Class, Optional<EntityCache>> entityCaches = new ConcurrentHashMap<>();
+
+    /**
+     * 不存在的ID缓存，只包含已配置的实体类型。
+     */
+    private final ConcurrentHashMap<Class, EntityCache> negativeCaches = new ConcurrentHashMap<>();
+
+    /**
+     * 已存在ID的过滤器，只包含已配置的实体类型。
+     */
+    private final ConcurrentHashMap<Class, IdentityFilter> identityFilters = new ConcurrentHashMap<>();
+
+    /**
+     * 查询结果缓存，使用同一个Sql生成器的DAO共享，任意DAO写入表时都能使引用了该表的结果失效。
+     */
+    private volatile QueryCache queryCache;
+
+    /**
+     * 表的写入版本，通过DAO写入表时递增，用于判断加载期间是否发生了写入。
+     */
+    private final ConcurrentHashMap<String, AtomicLong> writeVersions = new ConcurrentHashMap<>();
+
+    /**
+     * 单条语句中允许的最大参数个数，不超过常用数据库驱动的限制。
+     */
+    public static final int MAX_PARAMETERS = 32767;
+
+    /**
+     * 每个实体类型最多缓存的多行插入语句数，避免行数变化时缓存无限增长。
+     */
+    public static final int MAX_CACHED_ROWS = 16;
+
+    /**
+     * 单条语句中按ID批量操作的最大记录数。
+     */
+    public static final int MAX_BATCH_IDS = 1000;
+
     /**
      * 是否使用下划线命名风格。
      */
     private final boolean underscore;
 
+    /**
+     * 数据库方言，未配置时不能生成方言相关的语句。
+     */
+    private final Dialect dialect;
+
     /**
      * 默认构造方法。
      */
     public SqlGenerator() {
         this.underscore = false;
+        this.dialect = null;
     }
 
     /**
@@ -37,6 +103,25 @@ public class SqlGenerator {
      */
     public SqlGenerator(boolean underscore) {
         this.underscore = underscore;
+        this.dialect = null;
+    }
+
+    /**
+     * 初始化方法，可配置是否使用下划线命名风格及数据库方言。
+     *
+     * @param underscore 是否使用下划线命名风格。
+     * @param dialect    数据库方言。
+     */
+    public SqlGenerator(boolean underscore, Dialect dialect) {
+        this.underscore = underscore;
+        this.dialect = dialect;
+    }
+
+    /**
+     * 获取数据库方言。
+     */
+    public Dialect getDialect() {
+        return dialect;
     }
 
     /**
@@ -50,16 +135,128 @@ public class SqlGenerator {
                 newClass -> new EntityInfo(newClass, underscore));
     }
 
+    /**
+     * 获取实体类型的二级缓存，未配置时根据Cached注解创建，未启用缓存时返回null。
+     */
+    public EntityCache getEntityCache(Class entityClass) {
+        return entityCaches.computeIfAbsent(entityClass, newClass -> {
+            Cached cached = (Cached) newClass.getAnnotation(Cached.class);
+            return cached == null ? Optional.empty() :
+                    Optional.of(new LruEntityCache(cached.maxSize(), cached.expireMillis()));
+        }).orElse(null);
+    }
+
+    /**
+     * 配置实体类型的二级缓存，为null时禁用该类型的缓存。
+     */
+    public void setEntityCache(Class entityClass, EntityCache entityCache) {
+        if (entityClass == null)
+            throw new DaoException("Entity class is empty.");
+        entityCaches.put(entityClass, Optional.ofNullable(entityCache));
+    }
+
+    /**
+     * 获取实体类型的不存在ID缓存，未配置时返回null。
+     */
+    public EntityCache getNegativeCache(Class entityClass) {
+        return negativeCaches.get(entityClass);
+    }
+
+    /**
+     * 配置实体类型的不存在ID缓存，get未找到的ID在有效期内直接返回null，为null时禁用。
+     */
+    public void setNegativeCache(Class entityClass, EntityCache negativeCache) {
+        if (entityClass == null)
+            throw new DaoException("Entity class is empty.");
+        if (negativeCache == null)
+            negativeCaches.remove(entityClass);
+        else
+            negativeCaches.put(entityClass, negativeCache);
+    }
+
+    /**
+     * 获取实体类型的已存在ID过滤器，未配置时返回null。
+     */
+    public IdentityFilter getIdentityFilter(Class entityClass) {
+        return identityFilters.get(entityClass);
+    }
+
+    /**
+     * 配置实体类型的已存在ID过滤器，过滤器判断不存在的ID直接返回null，为null时禁用。
+     */
+    public void setIdentityFilter(Class entityClass, IdentityFilter identityFilter) {
+        if (entityClass == null)
+            throw new DaoException("Entity class is empty.");
+        if (identityFilter == null)
+            identityFilters.remove(entityClass);
+        else
+            identityFilters.put(entityClass, identityFilter);
+    }
+
+    /**
+     * 获取共享的查询结果缓存，未配置时返回null。
+     */
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * 配置共享的查询结果缓存，为null时不缓存查询结果。
+     */
+    public void setQueryCache(QueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    /**
+     * 获取表的写入版本，表名不区分大小写且忽略模式名前缀。
+     */
+    public AtomicLong getWriteVersion(String table) {
+        String name = table.substring(table.lastIndexOf('.') + 1).toUpperCase(Locale.US);
+        return writeVersions.computeIfAbsent(name, newName -> new AtomicLong());
+    }
+
+    /**
+     * 记录实体对象的ID已存在，用于绕过DAO直接插入数据之后。
+     */
+    public void recordIdentity(Object entity) {
+        Class entityClass = entity.getClass();
+        IdentityFilter identityFilter = identityFilters.get(entityClass);
+        EntityCache negativeCache = negativeCaches.get(entityClass);
+        if (identityFilter == null && negativeCache == null)
+            return;
+        Object[] identities = EntityUtils.getEntityIds(getEntityInfo(entityClass), entity);
+        if (identityFilter != null)
+            identityFilter.put(identities);
+        if (negativeCache != null)
+            negativeCache.remove(Arrays.asList(identities));
+    }
+
     /**
      * 生成实体对象的ID。
      */
     public void generateIdentity(Object entity) {
+        generateIdentity(entity, false);
+    }
+
+    /**
+     * 当ID为空时生成实体对象的ID。
+     */
+    public void generateIdentityIfEmpty(Object entity) {
+        generateIdentity(entity, true);
+    }
+
+    /**
+     * 生成实体对象的ID，可只为空的ID生成。
+     */
+    private void generateIdentity(Object entity, boolean onlyEmpty) {
         Property[] properties = getEntityInfo(entity.getClass()).getIdentities();
         for (Property property : properties) {
             // 处理ID 可能有0个或多个ID属性
             if (property.isGenerate()) {
                 Class type = property.getType();
                 try {
+                    if (onlyEmpty && property.getReadMethod().invoke(entity) != null)
+                        continue;
                     if (String.class == type) {
                         property.getWriteMethod().invoke(entity, GlobalIdWorker.nextString());
                     } else if (BigInteger.class == type) {
@@ -146,7 +343,7 @@ public class SqlGenerator {
         StringBuilder columns = new StringBuilder(32);
         StringBuilder values = new StringBuilder(32);
         EntityInfo entityInfo = getEntityInfo(entityClass);
-        Property[] properties = entityInfo.getProperties();
+        Property[] properties = entityInfo.getInsertProperties();
         for (Property property : properties) {
             // 添加属性到插入列表
             if (columns.length() > 0) {
@@ -162,6 +359,119 @@ public class SqlGenerator {
                 " (" + columns + ") VALUES (" + values + ")";
     }
 
+    /**
+     * 获取多行插入时每条语句的行数，保证参数个数不超过限制。
+     */
+    public int getMultiValuesRows(Class entityClass, int chunkSize) {
+        int columns = getEntityInfo(entityClass).getInsertProperties().length;
+        return Math.max(1, Math.min(chunkSize, MAX_PARAMETERS / columns));
+    }
+
+    /**
+     * 生成与Class对应的多行Insert语句，每个实体类型最多缓存MAX_CACHED_ROWS种行数的语句，超出时直接生成。
+     */
+    public String getInsertMultiValues(Class entityClass, int rows) {
+        if (rows < 1)
+            throw new DaoException("Rows must be greater than 0.");
+        ConcurrentHashMap<Integer, String> cached = multiValuesCache
+                .computeIfAbsent(entityClass, newClass -> new ConcurrentHashMap<>());
+        String sql = cached.get(rows);
+        if (sql != null)
+            return sql;
+        sql = buildInsertMultiValues(entityClass, rows);
+        if (cached.size() < MAX_CACHED_ROWS)
+            cached.putIfAbsent(rows, sql);
+        return sql;
+    }
+
+    /**
+     * 生成多行Insert语句。
+     */
+    private String buildInsertMultiValues(Class entityClass, int rows) {
+        StringBuilder columns = new StringBuilder(32);
+        StringBuilder values = new StringBuilder(32);
+        EntityInfo entityInfo = getEntityInfo(entityClass);
+        Property[] properties = entityInfo.getInsertProperties();
+        for (Property property : properties) {
+            // 添加属性到插入列表
+            if (columns.length() > 0) {
+                columns.append(',');
+                values.append(',');
+            }
+            columns.append(property.getSqlName());
+            values.append('?');
+        }
+        StringBuilder sql = new StringBuilder(32 + columns.length() + (values.length() + 3) * rows)
+                .append("INSERT INTO ").append(entityInfo.getSqlName())
+                .append(" (").append(columns).append(") VALUES ");
+        for (int i = 0; i < rows; i++) {
+            if (i > 0)
+                sql.append(',');
+            sql.append('(').append(values).append(')');
+        }
+        return sql.toString();
+    }
+
+    /**
+     * 生成与Class对应的插入或更新语句，根据ID判断记录是否存在，语法与数据库方言相关，不支持数据库生成的ID。
+     */
+    public String getUpsertValues(Class entityClass) {
+        if (dialect == null)
+            throw new DaoException("Dialect is not configured.");
+        EntityInfo entityInfo = getEntityInfo(entityClass);
+        if (entityInfo.getAutoIncrements().length > 0)
+            throw new DaoException("Upsert does not support database generated identity.");
+        StringBuilder columns = new StringBuilder(32);
+        StringBuilder values = new StringBuilder(32);
+        StringBuilder identities = new StringBuilder(32);
+        StringBuilder updates = new StringBuilder(32);
+        Property[] properties = entityInfo.getProperties();
+        for (Property property : properties) {
+            // 添加属性到插入列表
+            if (columns.length() > 0) {
+                columns.append(',');
+                values.append(',');
+            }
+            columns.append(property.getSqlName());
+            values.append(':').append(property.getName());
+            if (property.isIdentity()) {
+                // 添加到ID列表
+                if (identities.length() > 0)
+                    identities.append(',');
+                identities.append(property.getSqlName());
+            } else {
+                // 添加到要更新的字段
+                if (updates.length() > 0)
+                    updates.append(',');
+                updates.append(property.getSqlName()).append('=');
+                if (dialect == Dialect.MYSQL)
+                    updates.append("VALUES(").append(property.getSqlName()).append(')');
+                else
+                    updates.append("EXCLUDED.").append(property.getSqlName());
+            }
+        }
+        if (identities.length() == 0)
+            throw new DaoException("Entity class has no identity.");
+        switch (dialect) {
+            case H2:
+                return "MERGE INTO " + entityInfo.getSqlName() + " (" + columns +
+                        ") KEY (" + identities + ") VALUES (" + values + ")";
+            case MYSQL:
+                // 没有可更新的字段时更新ID为自身
+                if (updates.length() == 0)
+                    updates.append(entityInfo.getIdentities()[0].getSqlName())
+                            .append('=').append(entityInfo.getIdentities()[0].getSqlName());
+                return "INSERT INTO " + entityInfo.getSqlName() + " (" + columns + ") VALUES (" +
+                        values + ") ON DUPLICATE KEY UPDATE " + updates;
+            case POSTGRESQL:
+                return "INSERT INTO " + entityInfo.getSqlName() + " (" + columns + ") VALUES (" +
+                        values + ") ON CONFLICT (" + identities + ") " +
+                        (updates.length() == 0 ? "DO NOTHING" : "DO UPDATE SET " + updates);
+            default:
+                throw new DaoException("Unsupported dialect: " + dialect);
+        }
+    }
+
     /**
      * 生成与配置类对应的Insert语句。
      */
@@ -170,7 +480,7 @@ public class SqlGenerator {
         StringBuilder columns = new StringBuilder(32);
         StringBuilder values = new StringBuilder(32);
         EntityInfo entityInfo = getEntityInfo(entityClass);
-        Property[] properties = entityInfo.getProperties();
+        Property[] properties = entityInfo.getInsertProperties();
         for (Property property : properties) {
             // 添加属性到插入列表 ID属性必须插入
             if (property.isIdentity() || EntityUtils.isPositive(property, config) == positive) {
@@ -225,6 +535,62 @@ public class SqlGenerator {
         return "DELETE FROM " + entityInfo.getSqlName() + " WHERE " + identities;
     }
 
+    /**
+     * 获取按ID批量操作时每条语句的记录数，保证参数个数不超过限制。
+     */
+    public int getBatchIdsRows(Class entityClass) {
+        int identities = getEntityInfo(entityClass).getIdentities().length;
+        if (identities == 0)
+            throw new DaoException("Entity class has no identity.");
+        return Math.min(MAX_BATCH_IDS, MAX_PARAMETERS / identities);
+    }
+
+    /**
+     * 生成与Class对应的Delete语句带批量ID条件，多个ID属性时使用行值比较。
+     */
+    public String getDeleteWhereBatchIds(Class entityClass, int length) {
+        EntityInfo entityInfo = getEntityInfo(entityClass);
+        return "DELETE FROM " + entityInfo.getSqlName() + " WHERE " + getBatchIdsCondition(entityInfo, length);
+    }
+
+    /**
+     * 生成批量ID的IN条件，多个ID属性时为(a,b) IN ((?,?),(?,?))格式。
+     */
+    private String getBatchIdsCondition(EntityInfo entityInfo, int length) {
+        Property[] properties = entityInfo.getIdentities();
+        if (properties.length == 0)
+            throw new DaoException("Entity class has no identity.");
+        if (length < 1)
+            throw new DaoException("Length must be greater than 0.");
+        StringBuilder columns = new StringBuilder(32);
+        StringBuilder row = new StringBuilder(16);
+        for (Property property : properties) {
+            if (columns.length() > 0) {
+                columns.append(',');
+                row.append(',');
+            }
+            columns.append(property.getSqlName());
+            row.append('?');
+        }
+        StringBuilder condition = new StringBuilder(32 + length * (row.length() + 3));
+        if (properties.length == 1) {
+            condition.append(columns).append(" IN (");
+            while (length-- > 0) {
+                condition.append('?');
+                if (length > 0)
+                    condition.append(',');
+            }
+        } else {
+            condition.append('(').append(columns).append(") IN (");
+            while (length-- > 0) {
+                condition.append('(').append(row).append(')');
+                if (length > 0)
+                    condition.append(',');
+            }
+        }
+        return condition.append(')').toString();
+    }
+
     /**
      * 生成与Class对应的Delete语句带命名ID条件。
      */
@@ -333,6 +699,68 @@ public class SqlGenerator {
                 + entityInfo.getSqlNameAlias() + " WHERE " + identities;
     }
 
+    /**
+     * 生成只查询ID列的Select语句。
+     */
+    public String getSelectIdentities(Class entityClass) {
+        StringBuilder columns = new StringBuilder(32);
+        EntityInfo entityInfo = getEntityInfo(entityClass);
+        for (Property property : entityInfo.getIdentities()) {
+            if (columns.length() > 0)
+                columns.append(',');
+            columns.append(property.getSqlName());
+        }
+        if (columns.length() == 0)
+            throw new DaoException("Entity class has no identity.");
+        return "SELECT " + columns + " FROM " + entityInfo.getSqlName();
+    }
+
+    /**
+     * 生成与Class对应的Select语句并按ID排序。
+     */
+    public String getSelectOrderById(Class entityClass) {
+        return "SELECT " + getResultColumns(entityClass) + " FROM " +
+                getEntityInfo(entityClass).getSqlNameAlias() + " WHERE 1=1 ORDER BY " + getIdentityOrders(entityClass);
+    }
+
+    /**
+     * 生成与Class对应的Select语句带ID大于条件并按ID排序，用于键集分页。
+     * 多个ID时按顺序比较：(a>?) OR (a=? AND b>?) OR (a=? AND b=? AND c>?)。
+     */
+    public String getSelectWhereIdGreater(Class entityClass) {
+        StringBuilder conditions = new StringBuilder(32);
+        EntityInfo entityInfo = getEntityInfo(entityClass);
+        Property[] properties = entityInfo.getIdentities();
+        if (properties.length == 0)
+            throw new DaoException("Entity class has no identity.");
+        for (int i = 0; i < properties.length; i++) {
+            if (conditions.length() > 0)
+                conditions.append(" OR ");
+            conditions.append('(');
+            for (int j = 0; j < i; j++)
+                conditions.append(properties[j].getSqlNameAlias()).append("=? AND ");
+            conditions.append(properties[i].getSqlNameAlias()).append(">?)");
+        }
+        return "SELECT " + getResultColumns(entityClass) + " FROM " + entityInfo.getSqlNameAlias()
+                + " WHERE " + conditions + " ORDER BY " + getIdentityOrders(entityClass);
+    }
+
+    /**
+     * 生成按ID排序的列。
+     */
+    private String getIdentityOrders(Class entityClass) {
+        StringBuilder orders = new StringBuilder(32);
+        Property[] properties = getEntityInfo(entityClass).getIdentities();
+        if (properties.length == 0)
+            throw new DaoException("Entity class has no identity.");
+        for (Property property : properties) {
+            if (orders.length() > 0)
+                orders.append(',');
+            orders.append(property.getSqlNameAlias());
+        }
+        return orders.toString();
+    }
+
     /**
      * 生成与配置类的属性对应的Select语句带ID条件。
      */
@@ -402,6 +830,95 @@ public class SqlGenerator {
         return "UPDATE " + entityInfo.getSqlName() + " SET " + updates + " WHERE " + identities;
     }
 
+    /**
+     * 获取配置对象中积极的非ID属性的掩码，掩码的位与实体属性的顺序对应。
+     */
+    public BitSet getPositiveMask(Object config) {
+        Property[] properties = getEntityInfo(config.getClass()).getProperties();
+        BitSet mask = new BitSet(properties.length);
+        for (int i = 0; i < properties.length; i++) {
+            if (!properties[i].isIdentity() && EntityUtils.isPositive(properties[i], config))
+                mask.set(i);
+        }
+        return mask;
+    }
+
+    /**
+     * 生成与属性掩码对应的Update语句，相同掩码的语句会被缓存。
+     */
+    public String getUpdateByMask(Class entityClass, BitSet mask) {
+        if (mask.isEmpty())
+            throw new DaoException("No property need to update.");
+        return updateMaskCache.computeIfAbsent(entityClass, newClass -> new ConcurrentHashMap<>())
+                .computeIfAbsent(mask, newMask -> {
+                    StringBuilder updates = new StringBuilder(32);
+                    StringBuilder identities = new StringBuilder(32);
+                    EntityInfo entityInfo = getEntityInfo(entityClass);
+                    Property[] properties = entityInfo.getProperties();
+                    for (int i = 0; i < properties.length; i++) {
+                        Property property = properties[i];
+                        if (property.isIdentity()) {
+                            // ID添加到更新条件
+                            if (identities.length() > 0)
+                                identities.append(" AND ");
+                            identities.append(property.getSqlName())
+                                    .append("=:").append(property.getName());
+                        } else if (newMask.get(i)) {
+                            // 添加到要更新的字段
+                            if (updates.length() > 0)
+                                updates.append(',');
+                            updates.append(property.getSqlName())
+                                    .append("=:").append(property.getName());
+                        }
+                    }
+                    return "UPDATE " + entityInfo.getSqlName() + " SET " + updates + " WHERE " + identities;
+                });
+    }
+
+    /**
+     * 获取按CASE语句批量更新时每条语句的行数，保证参数个数不超过限制。
+     */
+    public int getUpdateCaseRows(Class entityClass, BitSet mask, int chunkSize) {
+        int identities = getEntityInfo(entityClass).getIdentities().length;
+        if (identities == 0)
+            throw new DaoException("Entity class has no identity.");
+        // 每行的参数：每个更新列的ID和值，以及条件中的ID
+        int rowParams = mask.cardinality() * (identities + 1) + identities;
+        return Math.max(1, Math.min(chunkSize, MAX_PARAMETERS / rowParams));
+    }
+
+    /**
+     * 生成与属性掩码对应的多行Update语句，使用CASE按ID为每行设置不同的值。
+     * 格式为：UPDATE t SET c=CASE WHEN id=? THEN ? ... ELSE c END WHERE id IN (?...)。
+     */
+    public String getUpdateCaseByMask(Class entityClass, BitSet mask, int rows) {
+        if (mask.isEmpty())
+            throw new DaoException("No property need to update.");
+        EntityInfo entityInfo = getEntityInfo(entityClass);
+        Property[] properties = entityInfo.getProperties();
+        Property[] identities = entityInfo.getIdentities();
+        // 每行的ID条件
+        StringBuilder when = new StringBuilder(32).append(" WHEN ");
+        for (int i = 0; i < identities.length; i++) {
+            if (i > 0)
+                when.append(" AND ");
+            when.append(identities[i].getSqlName()).append("=?");
+        }
+        when.append(" THEN ?");
+        StringBuilder updates = new StringBuilder(32 + mask.cardinality() * rows * when.length());
+        for (int i = mask.nextSetBit(0); i >= 0; i = mask.nextSetBit(i + 1)) {
+            if (updates.length() > 0)
+                updates.append(',');
+            String column = properties[i].getSqlName();
+            updates.append(column).append("=CASE");
+            for (int n = 0; n < rows; n++)
+                updates.append(when);
+            updates.append(" ELSE ").append(column).append(" END");
+        }
+        return "UPDATE " + entityInfo.getSqlName() + " SET " + updates +
+                " WHERE " + getBatchIdsCondition(entityInfo, rows);
+    }
+
     /**
      * 生成与Class对应的Update语句。
      */
@@ -0,0 +1,43 @@
+package ewing.dandelion.handler;
+
+/**
+ * 回调处理的汇总信息。
+ *
+ * @author Ewing
+ */
+public class CallbackSummary {
+    private long rows;
+
+    private long elapsedMillis;
+
+    public CallbackSummary() {
+    }
+
+    public CallbackSummary(long rows, long elapsedMillis) {
+        this.rows = rows;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public CallbackSummary setRows(long rows) {
+        this.rows = rows;
+        return this;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public CallbackSummary setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "CallbackSummary{rows=" + rows + ", elapsedMillis=" + elapsedMillis + '}';
+    }
+}
@@ -0,0 +1,126 @@
+package ewing.dandelion.handler;
+
+import ewing.dandelion.DaoException;
+import ewing.dandelion.generation.EntityInfo;
+import ewing.dandelion.generation.EntityUtils;
+import ewing.dandelion.generation.Property;
+import org.springframework.beans.BeanInstantiationException;
+import org.springframework.beans.BeanUtils;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.lang.reflect.Array;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.function.Consumer;
+
+/**
+ * 逐行封装实体对象并交给消费者处理，不保留任何结果。
+ *
+ * @author Ewing
+ */
+public class EntityRowHandler<E> implements RowCallbackHandler {
+
+    private final Class<E> entityClass;
+
+    private final EntityInfo entityInfo;
+
+    private final Consumer<E> consumer;
+
+    private final boolean reuse;
+
+    private E reusable;
+
+    private Property[] columnProperties;
+
+    private long rows;
+
+    /**
+     * 初始化行处理器，reuse为true时所有行复用同一个实体对象。
+     */
+    public EntityRowHandler(Class<E> entityClass, EntityInfo entityInfo, Consumer<E> consumer, boolean reuse) {
+        this.entityClass = entityClass;
+        this.entityInfo = entityInfo;
+        this.consumer = consumer;
+        this.reuse = reuse;
+    }
+
+    /**
+     * 处理一行数据。
+     */
+    @Override
+    public void processRow(ResultSet rs) throws SQLException {
+        if (columnProperties == null)
+            columnProperties = mapColumns(rs.getMetaData());
+        E entity = reuse ? getReusable() : newEntity();
+        for (int i = 0; i < columnProperties.length; i++) {
+            Property property = columnProperties[i];
+            if (property == null)
+                continue;
+            Object value = JdbcUtils.getResultSetValue(rs, i + 1, property.getType());
+            // 基本类型不能设置为null，复用对象时设置为默认值以清除上一行的值
+            if (value == null && property.getType().isPrimitive()) {
+                if (!reuse)
+                    continue;
+                value = Array.get(Array.newInstance(property.getType(), 1), 0);
+            }
+            try {
+                property.getWriteMethod().invoke(entity, value);
+            } catch (ReflectiveOperationException e) {
+                throw new DaoException("Failed to write entity property value.", e);
+            }
+        }
+        rows++;
+        consumer.accept(entity);
+    }
+
+    /**
+     * 获取已处理的行数。
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * 根据结果列名找到对应的属性，找不到的列被忽略。
+     */
+    private Property[] mapColumns(ResultSetMetaData metaData) throws SQLException {
+        int count = metaData.getColumnCount();
+        Property[] mapped = new Property[count];
+        Property[] properties = entityInfo.getProperties();
+        for (int i = 0; i < count; i++) {
+            String column = JdbcUtils.lookupColumnName(metaData, i + 1);
+            for (Property property : properties) {
+                if (column.equalsIgnoreCase(property.getSqlName())
+                        || column.equalsIgnoreCase(property.getName())
+                        || column.equalsIgnoreCase(EntityUtils.underscore(property.getName()))) {
+                    mapped[i] = property;
+                    break;
+                }
+            }
+        }
+        return mapped;
+    }
+
+    /**
+     * 获取复用的实体对象。
+     */
+    private E getReusable() {
+        if (reusable == null)
+            reusable = newEntity();
+        return reusable;
+    }
+
+    /**
+     * 创建新的实体对象。
+     */
+    private E newEntity() {
+        try {
+            return BeanUtils.instantiateClass(entityClass);
+        } catch (BeanInstantiationException e) {
+            throw new DaoException("Create entity instance failed.", e);
+        }
+    }
+
+}
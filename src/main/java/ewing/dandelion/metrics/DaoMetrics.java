@@ -0,0 +1,221 @@
+package ewing.dandelion.metrics;
+
+import ewing.dandelion.DaoException;
+import ewing.dandelion.GenericDao;
+import ewing.dandelion.SimpleDao;
+import ewing.dandelion.pagination.PageData;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+
+/**
+ * 为DAO添加指标统计，记录每个DAO方法以及每条Sql语句的用时、行数和异常并通知监听器。
+ * 通过代理实现，未调用instrument的DAO完全没有额外开销，DAO配置了读写分离路由时从库上的查询也会统计。
+ * 语句中LIMIT和OFFSET后的数字替换为占位符，使不同页的分页查询汇总为同一个语句模板。
+ *
+ * @author Ewing
+ */
+public final class DaoMetrics {
+
+    private static final Pattern PAGE_LITERALS = Pattern.compile("\\b(LIMIT|OFFSET)\\s+\\d+", Pattern.CASE_INSENSITIVE);
+
+    private DaoMetrics() {
+    }
+
+    /**
+     * 为DAO的JdbcOperations和命名JdbcOperations添加语句统计，并返回统计DAO方法调用的代理。
+     * 返回的代理实现daoInterface接口，之后应使用代理访问数据库。
+     * 已添加过统计的DAO再次调用时，语句统计同时通知新的监听器，如同时使用MetricsRecorder和QueryRepeatDetector。
+     */
+    public static <T extends SimpleDao> T instrument(T dao, Class<T> daoInterface, MetricsListener listener) {
+        if (dao == null || daoInterface == null || listener == null)
+            throw new DaoException("Dao or dao interface or listener is empty.");
+        if (!daoInterface.isInterface() || !daoInterface.isInstance(dao))
+            throw new DaoException("Dao interface is not implemented by dao.");
+        JdbcOperations jdbcOperations = dao.getJdbcOperations();
+        if (isInstrumented(jdbcOperations))
+            ((Instrumented) jdbcOperations).addListener(listener);
+        else if (jdbcOperations != null)
+            dao.setJdbcOperations(instrument(jdbcOperations, JdbcOperations.class, newListeners(listener)));
+        NamedParameterJdbcOperations namedParamOperations = dao.getNamedParamOperations();
+        if (isInstrumented(namedParamOperations))
+            ((Instrumented) namedParamOperations).addListener(listener);
+        else if (namedParamOperations != null)
+            dao.setNamedParamOperations(instrument(namedParamOperations,
+                    NamedParameterJdbcOperations.class, newListeners(listener)));
+        Class genericClass = dao instanceof GenericDao ? ((GenericDao) dao).getEntityClass() : null;
+        return daoInterface.cast(Proxy.newProxyInstance(daoInterface.getClassLoader(), new Class[]{daoInterface},
+                (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class)
+                        return invokeObject(dao, proxy, method.getName(), args);
+                    long start = System.nanoTime();
+                    Object result = null;
+                    Throwable error = null;
+                    try {
+                        result = method.invoke(dao, args);
+                        return result;
+                    } catch (InvocationTargetException e) {
+                        error = e.getTargetException();
+                        throw error;
+                    } finally {
+                        String name = method.getName();
+                        long rows = name.startsWith("count") || name.equals("queryLong") ? 1 : countRows(result);
+                        listener.onDaoCall(name, genericClass == null ? getEntityClass(name, args) : genericClass,
+                                System.nanoTime() - start, rows, error);
+                    }
+                }));
+    }
+
+    /**
+     * 主库的JdbcOperations添加了统计时，为从库的JdbcOperations添加相同的统计，同一个从库返回同一个代理。
+     */
+    public static JdbcOperations instrumentReads(JdbcOperations primary, JdbcOperations reads) {
+        Object operations = SlowQueryLog.unwrap(primary);
+        if (reads == null || isInstrumented(reads) || !isInstrumented(operations))
+            return reads;
+        return ((Instrumented) operations).instrumentRelated(reads);
+    }
+
+    /**
+     * 把分页语句中LIMIT和OFFSET后的数字替换为占位符。
+     */
+    public static String normalizeSql(String sql) {
+        return PAGE_LITERALS.matcher(sql).replaceAll("$1 ?");
+    }
+
+    /**
+     * 代理JdbcOperations或命名JdbcOperations，统计带Sql语句的调用。
+     */
+    private static <T> T instrument(T operations, Class<T> type, List<MetricsListener> listeners) {
+        Map<Object, JdbcOperations> related = new ConcurrentHashMap<>();
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type, Instrumented.class},
+                (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class)
+                        return invokeObject(operations, proxy, method.getName(), args);
+                    if (method.getDeclaringClass() == Instrumented.class) {
+                        if ("addListener".equals(method.getName())) {
+                            // 相关的从库代理共享同一个监听器列表
+                            if (!listeners.contains(args[0]))
+                                listeners.add((MetricsListener) args[0]);
+                            return null;
+                        }
+                        return related.computeIfAbsent(args[0],
+                                target -> instrument((JdbcOperations) target, JdbcOperations.class, listeners));
+                    }
+                    String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+                    if (sql == null) {
+                        try {
+                            return method.invoke(operations, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getTargetException();
+                        }
+                    }
+                    long start = System.nanoTime();
+                    Object result = null;
+                    Throwable error = null;
+                    try {
+                        result = method.invoke(operations, args);
+                        return result;
+                    } catch (InvocationTargetException e) {
+                        error = e.getTargetException();
+                        throw error;
+                    } finally {
+                        long elapsed = System.nanoTime() - start;
+                        String template = normalizeSql(sql);
+                        long rows = countRows(result);
+                        for (MetricsListener listener : listeners)
+                            listener.onStatement(template, elapsed, rows, error);
+                    }
+                }));
+    }
+
+    private static boolean isInstrumented(Object operations) {
+        return operations instanceof Instrumented;
+    }
+
+    /**
+     * 标记已添加统计的代理，避免重复代理，可追加监听器，可为相关的从库添加相同的统计。
+     */
+    private interface Instrumented {
+        JdbcOperations instrumentRelated(JdbcOperations operations);
+
+        void addListener(MetricsListener listener);
+    }
+
+    private static List<MetricsListener> newListeners(MetricsListener listener) {
+        List<MetricsListener> listeners = new CopyOnWriteArrayList<>();
+        listeners.add(listener);
+        return listeners;
+    }
+
+    private static Object invokeObject(Object target, Object proxy, String name, Object[] args) {
+        if ("equals".equals(name))
+            return proxy == args[0];
+        if ("hashCode".equals(name))
+            return System.identityHashCode(proxy);
+        return "toString".equals(name) ? "Instrumented(" + target + ")" : null;
+    }
+
+    /**
+     * 从参数中获取实体类型：Class参数、实体对象或实体数组的元素，Sql查询方法只使用Class参数。
+     */
+    private static Class getEntityClass(String method, Object[] args) {
+        if (args == null)
+            return null;
+        for (Object arg : args) {
+            if (arg instanceof Class)
+                return (Class) arg;
+        }
+        if (method.startsWith("query") || method.startsWith("forEach"))
+            return null;
+        for (Object arg : args) {
+            if (arg == null || arg instanceof String || arg instanceof Number)
+                continue;
+            if (arg.getClass().isArray()) {
+                if (Array.getLength(arg) > 0 && !arg.getClass().getComponentType().isPrimitive()) {
+                    Object first = Array.get(arg, 0);
+                    if (first != null && !(first instanceof String) && !(first instanceof Number))
+                        return first.getClass();
+                }
+                continue;
+            }
+            return arg.getClass();
+        }
+        return null;
+    }
+
+    /**
+     * 根据返回值估算读取或影响的行数。
+     */
+    private static long countRows(Object result) {
+        if (result == null)
+            return 0;
+        if (result instanceof Collection)
+            return ((Collection) result).size();
+        if (result instanceof PageData)
+            return ((PageData) result).getContent() == null ? 0 : ((PageData) result).getContent().size();
+        if (result instanceof int[]) {
+            long rows = 0;
+            for (int count : (int[]) result)
+                rows += count > 0 ? count : 0;
+            return rows;
+        }
+        if (result instanceof Object[])
+            return ((Object[]) result).length;
+        if (result instanceof Integer)
+            return (Integer) result;
+        if (result instanceof Map || result instanceof Number || !result.getClass().isArray())
+            return 1;
+        return 0;
+    }
+
+}
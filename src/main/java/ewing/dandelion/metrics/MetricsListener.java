@@ -0,0 +1,20 @@
+package ewing.dandelion.metrics;
+
+/**
+ * 指标监听器，接收DAO方法调用和Sql语句执行的用时、行数及异常，未配置时不产生任何开销。
+ *
+ * @author Ewing
+ */
+public interface MetricsListener {
+
+    /**
+     * DAO方法调用完成，entityClass可能为null，rows为读取或影响的行数，成功时error为null。
+     */
+    void onDaoCall(String method, Class entityClass, long nanos, long rows, Throwable error);
+
+    /**
+     * Sql语句执行完成，sql为带占位符的语句模板，rows为读取或影响的行数，成功时error为null。
+     */
+    void onStatement(String sql, long nanos, long rows, Throwable error);
+
+}
@@ -0,0 +1,32 @@
+package ewing.dandelion.metrics;
+
+import java.util.List;
+
+/**
+ * 通过JMX查看的指标。
+ *
+ * @author Ewing
+ */
+public interface MetricsMXBean {
+
+    /**
+     * 获取按DAO方法和实体类型分类的统计。
+     */
+    List<OperationStats.Snapshot> getDaoCalls();
+
+    /**
+     * 获取按Sql语句模板分类的统计。
+     */
+    List<OperationStats.Snapshot> getStatements();
+
+    /**
+     * 获取用时分布各区间的上限（微秒）。
+     */
+    long[] getBucketMicros();
+
+    /**
+     * 清空统计。
+     */
+    void reset();
+
+}
@@ -0,0 +1,149 @@
+package ewing.dandelion.metrics;
+
+import ewing.dandelion.DaoException;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 内置的指标监听器，按DAO方法和实体类型以及Sql语句模板汇总统计，可注册到JMX。
+ * 语句模板的数量有上限，超过后新的模板合并到同一项中。
+ *
+ * @author Ewing
+ */
+public class MetricsRecorder implements MetricsListener, MetricsMXBean {
+
+    /**
+     * 超过模板数量上限后使用的统计项名称。
+     */
+    private static final String OTHER_STATEMENTS = "(other)";
+
+    private final ConcurrentMap<String, OperationStats> daoCalls = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, OperationStats> statements = new ConcurrentHashMap<>();
+
+    private int maxStatements = 1000;
+
+    private ObjectName objectName;
+
+    public int getMaxStatements() {
+        return maxStatements;
+    }
+
+    /**
+     * 设置分别统计的Sql语句模板数量上限。
+     */
+    public MetricsRecorder setMaxStatements(int maxStatements) {
+        if (maxStatements < 1)
+            throw new DaoException("Max statements must be greater than 0.");
+        this.maxStatements = maxStatements;
+        return this;
+    }
+
+    @Override
+    public void onDaoCall(String method, Class entityClass, long nanos, long rows, Throwable error) {
+        String name = entityClass == null ? method : method + "(" + entityClass.getSimpleName() + ")";
+        daoCalls.computeIfAbsent(name, OperationStats::new).record(nanos, rows, error != null);
+    }
+
+    @Override
+    public void onStatement(String sql, long nanos, long rows, Throwable error) {
+        OperationStats stats = statements.get(sql);
+        if (stats == null)
+            stats = statements.computeIfAbsent(statements.size() < maxStatements ? sql : OTHER_STATEMENTS,
+                    OperationStats::new);
+        stats.record(nanos, rows, error != null);
+    }
+
+    /**
+     * 获取DAO方法的统计，名称为方法名加实体类型的简单名称，如get(User)。
+     */
+    public OperationStats.Snapshot getDaoCall(String name) {
+        OperationStats stats = daoCalls.get(name);
+        return stats == null ? null : stats.snapshot();
+    }
+
+    /**
+     * 获取Sql语句模板的统计。
+     */
+    public OperationStats.Snapshot getStatement(String sql) {
+        OperationStats stats = statements.get(sql);
+        return stats == null ? null : stats.snapshot();
+    }
+
+    @Override
+    public List<OperationStats.Snapshot> getDaoCalls() {
+        return snapshots(daoCalls);
+    }
+
+    @Override
+    public List<OperationStats.Snapshot> getStatements() {
+        return snapshots(statements);
+    }
+
+    private static List<OperationStats.Snapshot> snapshots(ConcurrentMap<String, OperationStats> stats) {
+        List<OperationStats.Snapshot> snapshots = new ArrayList<>(stats.size());
+        for (OperationStats operationStats : stats.values())
+            snapshots.add(operationStats.snapshot());
+        return snapshots;
+    }
+
+    @Override
+    public long[] getBucketMicros() {
+        return OperationStats.getBucketMicros();
+    }
+
+    @Override
+    public void reset() {
+        daoCalls.clear();
+        statements.clear();
+    }
+
+    /**
+     * 注册到平台MBeanServer，名称为ewing.dandelion:type=Metrics,name=指定的名称。
+     */
+    public synchronized MetricsRecorder registerMBean(String name) {
+        if (name == null)
+            throw new DaoException("MBean name is empty.");
+        unregisterMBean();
+        try {
+            ObjectName objectName = new ObjectName("ewing.dandelion:type=Metrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.objectName = objectName;
+        } catch (JMException e) {
+            throw new DaoException("Register metrics MBean failed.", e);
+        }
+        return this;
+    }
+
+    /**
+     * 从平台MBeanServer注销。
+     */
+    public synchronized void unregisterMBean() {
+        if (objectName == null)
+            return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+        } catch (JMException e) {
+            throw new DaoException("Unregister metrics MBean failed.", e);
+        } finally {
+            objectName = null;
+        }
+    }
+
+    /**
+     * 获取注册到JMX的名称，未注册时为null。
+     */
+    public synchronized ObjectName getObjectName() {
+        return objectName;
+    }
+
+}
@@ -0,0 +1,143 @@
+package ewing.dandelion.metrics;
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 一类操作的统计：调用次数、异常次数、行数、用时及用时分布。
+ *
+ * @author Ewing
+ */
+public class OperationStats {
+
+    /**
+     * 用时分布各区间的上限（微秒），最后一个区间没有上限。
+     */
+    private static final long[] BUCKET_MICROS = {100, 500, 1000, 5000, 10000, 50000, 100000, 500000, 1000000, 5000000};
+
+    private final String name;
+
+    private final AtomicLong calls = new AtomicLong();
+
+    private final AtomicLong errors = new AtomicLong();
+
+    private final AtomicLong rows = new AtomicLong();
+
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKET_MICROS.length + 1);
+
+    public OperationStats(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 记录一次操作。
+     */
+    public void record(long nanos, long rowCount, boolean error) {
+        calls.incrementAndGet();
+        if (error)
+            errors.incrementAndGet();
+        rows.addAndGet(rowCount);
+        totalNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+            // 重试直到更新成功或已有更大的值
+        }
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        int bucket = 0;
+        while (bucket < BUCKET_MICROS.length && micros > BUCKET_MICROS[bucket])
+            bucket++;
+        histogram.incrementAndGet(bucket);
+    }
+
+    /**
+     * 获取用时分布各区间的上限（微秒）。
+     */
+    public static long[] getBucketMicros() {
+        return BUCKET_MICROS.clone();
+    }
+
+    /**
+     * 获取当前统计的快照。
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[histogram.length()];
+        for (int i = 0; i < counts.length; i++)
+            counts[i] = histogram.get(i);
+        return new Snapshot(name, calls.get(), errors.get(), rows.get(), totalNanos.get(), maxNanos.get(), counts);
+    }
+
+    /**
+     * 统计快照，可通过JMX查看。
+     */
+    public static class Snapshot {
+        private final String name;
+        private final long calls;
+        private final long errors;
+        private final long rows;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long[] histogram;
+
+        @ConstructorProperties({"name", "calls", "errors", "rows", "totalNanos", "maxNanos", "histogram"})
+        public Snapshot(String name, long calls, long errors, long rows, long totalNanos, long maxNanos, long[] histogram) {
+            this.name = name;
+            this.calls = calls;
+            this.errors = errors;
+            this.rows = rows;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.histogram = histogram;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         * 获取各用时区间的次数，区间上限见getBucketMicros。
+         */
+        public long[] getHistogram() {
+            return histogram.clone();
+        }
+
+        /**
+         * 获取平均用时（毫秒）。
+         */
+        public double getMeanMillis() {
+            return calls == 0 ? 0 : totalNanos / 1000000.0 / calls;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{name='" + name + "', calls=" + calls + ", errors=" + errors + ", rows=" + rows +
+                    ", meanMillis=" + getMeanMillis() + ", maxNanos=" + maxNanos + '}';
+        }
+    }
+
+}
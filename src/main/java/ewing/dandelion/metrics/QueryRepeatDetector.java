@@ -0,0 +1,157 @@
+package ewing.dandelion.metrics;
+
+import ewing.dandelion.DaoException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 检测N+1查询，统计同一个范围或事务中每个Sql语句模板的执行次数，超过阈值时输出带调用栈的警告，
+ * 或在测试中直接抛出异常，提示使用getBatch等批量方法。通过DaoMetrics添加到DAO，未在范围或事务中执行的语句不统计。
+ *
+ * @author Ewing
+ */
+public class QueryRepeatDetector implements MetricsListener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryRepeatDetector.class);
+
+    private final ThreadLocal<Tracker> scopeTracker = new ThreadLocal<>();
+
+    private final AtomicLong detectedCount = new AtomicLong();
+
+    private int threshold = 10;
+
+    private boolean failOnDetect;
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * 设置同一个语句模板在一个范围内允许执行的次数。
+     */
+    public QueryRepeatDetector setThreshold(int threshold) {
+        if (threshold < 1)
+            throw new DaoException("Threshold must be greater than 0.");
+        this.threshold = threshold;
+        return this;
+    }
+
+    public boolean isFailOnDetect() {
+        return failOnDetect;
+    }
+
+    /**
+     * 设置超过阈值时是否抛出异常，适合在测试中使用，否则只输出警告。
+     */
+    public QueryRepeatDetector setFailOnDetect(boolean failOnDetect) {
+        this.failOnDetect = failOnDetect;
+        return this;
+    }
+
+    /**
+     * 获取检测到的重复执行次数，每个范围中的每个语句模板只计一次。
+     */
+    public long getDetectedCount() {
+        return detectedCount.get();
+    }
+
+    /**
+     * 在当前线程开始一个检测范围，可以嵌套，最外层关闭时清除统计。
+     */
+    public Scope begin() {
+        Tracker tracker = scopeTracker.get();
+        if (tracker == null) {
+            tracker = new Tracker();
+            scopeTracker.set(tracker);
+        }
+        tracker.depth++;
+        return new Scope(tracker);
+    }
+
+    /**
+     * 获取当前范围或事务中语句模板的执行次数。
+     */
+    public int getCount(String sql) {
+        Tracker tracker = getTracker(false);
+        if (tracker == null)
+            return 0;
+        int[] count = tracker.counts.get(sql);
+        return count == null ? 0 : count[0];
+    }
+
+    @Override
+    public void onDaoCall(String method, Class entityClass, long nanos, long rows, Throwable error) {
+    }
+
+    @Override
+    public void onStatement(String sql, long nanos, long rows, Throwable error) {
+        Tracker tracker = getTracker(true);
+        if (tracker == null)
+            return;
+        int[] count = tracker.counts.computeIfAbsent(sql, key -> new int[1]);
+        if (++count[0] != threshold + 1)
+            return;
+        detectedCount.incrementAndGet();
+        DaoException exception = new DaoException("Possible N+1 query, executed more than " + threshold
+                + " times in one scope, consider getBatch or other batch methods: " + sql);
+        if (failOnDetect)
+            throw exception;
+        LOGGER.warn(exception.getMessage(), exception);
+    }
+
+    /**
+     * 优先使用当前线程的范围，否则使用当前事务，事务结束时清除统计。
+     */
+    private Tracker getTracker(boolean create) {
+        Tracker tracker = scopeTracker.get();
+        if (tracker != null || !TransactionSynchronizationManager.isSynchronizationActive())
+            return tracker;
+        tracker = (Tracker) TransactionSynchronizationManager.getResource(this);
+        if (tracker == null && create) {
+            tracker = new Tracker();
+            TransactionSynchronizationManager.bindResource(this, tracker);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(QueryRepeatDetector.this);
+                }
+            });
+        }
+        return tracker;
+    }
+
+    /**
+     * 语句模板的执行次数。
+     */
+    private static class Tracker {
+        private final Map<String, int[]> counts = new HashMap<>();
+        private int depth;
+    }
+
+    /**
+     * 检测范围。
+     */
+    public class Scope implements AutoCloseable {
+        private final Tracker tracker;
+        private boolean closed;
+
+        private Scope(Tracker tracker) {
+            this.tracker = tracker;
+        }
+
+        @Override
+        public void close() {
+            if (closed)
+                return;
+            closed = true;
+            if (--tracker.depth <= 0 && scopeTracker.get() == tracker)
+                scopeTracker.remove();
+        }
+    }
+
+}
@@ -0,0 +1,360 @@
+package ewing.dandelion.metrics;
+
+import ewing.dandelion.DaoException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.namedparam.BeanPropertySqlParameterSource;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 慢查询日志，记录超过阈值的Sql语句及用时，可记录参数并隐藏敏感值，未超过阈值的语句按采样率记录。
+ * 位置参数没有名称，无法判断是否敏感，默认全部隐藏，可关闭隐藏或设置自定义的参数隐藏器。
+ * 同时按语句模板汇总用时，可定期输出平均用时最长的若干个模板，每次输出后重新统计。
+ *
+ * @author Ewing
+ */
+public class SlowQueryLog implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SlowQueryLog.class);
+
+    /**
+     * 隐藏后的参数值。
+     */
+    private static final String REDACTED = "******";
+
+    private long thresholdMillis = 1000;
+
+    private boolean captureParams;
+
+    private double sampleRate;
+
+    private int maxParamLength = 64;
+
+    private boolean maskPositionalParams = true;
+
+    private int maxTemplates = 1000;
+
+    private Set<String> sensitiveNames = new HashSet<>(Arrays.asList("password", "secret", "token"));
+
+    private ParamRedactor paramRedactor;
+
+    private volatile ConcurrentMap<String, OperationStats> templates = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<Object, Object> wrapped = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService reporter;
+
+    /**
+     * 参数隐藏器，name为命名参数的名称，位置参数时为null，返回记录到日志中的值。
+     */
+    @FunctionalInterface
+    public interface ParamRedactor {
+        Object redact(String name, Object value);
+    }
+
+    /**
+     * 标记已添加慢查询日志的代理。
+     */
+    private interface Logged {
+        Object getLoggedTarget();
+    }
+
+    public long getThresholdMillis() {
+        return thresholdMillis;
+    }
+
+    /**
+     * 设置慢查询的阈值（毫秒）。
+     */
+    public SlowQueryLog setThresholdMillis(long thresholdMillis) {
+        if (thresholdMillis < 0)
+            throw new DaoException("Threshold millis must not be negative.");
+        this.thresholdMillis = thresholdMillis;
+        return this;
+    }
+
+    public boolean isCaptureParams() {
+        return captureParams;
+    }
+
+    /**
+     * 设置是否记录参数值，敏感参数和过长的值会被隐藏或截断。
+     */
+    public SlowQueryLog setCaptureParams(boolean captureParams) {
+        this.captureParams = captureParams;
+        return this;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * 设置未超过阈值的语句的采样记录比例，0为不记录，1为全部记录。
+     */
+    public SlowQueryLog setSampleRate(double sampleRate) {
+        if (sampleRate < 0 || sampleRate > 1)
+            throw new DaoException("Sample rate must be in [0, 1].");
+        this.sampleRate = sampleRate;
+        return this;
+    }
+
+    public boolean isMaskPositionalParams() {
+        return maskPositionalParams;
+    }
+
+    /**
+     * 设置是否隐藏位置参数（?占位符）的值，默认隐藏，设置了自定义的参数隐藏器时不使用该设置。
+     */
+    public SlowQueryLog setMaskPositionalParams(boolean maskPositionalParams) {
+        this.maskPositionalParams = maskPositionalParams;
+        return this;
+    }
+
+    public int getMaxParamLength() {
+        return maxParamLength;
+    }
+
+    /**
+     * 设置记录的参数值的最大长度，超过时截断。
+     */
+    public SlowQueryLog setMaxParamLength(int maxParamLength) {
+        if (maxParamLength < 1)
+            throw new DaoException("Max param length must be greater than 0.");
+        this.maxParamLength = maxParamLength;
+        return this;
+    }
+
+    public int getMaxTemplates() {
+        return maxTemplates;
+    }
+
+    /**
+     * 设置分别汇总的语句模板数量上限，超过后新的模板不再汇总。
+     */
+    public SlowQueryLog setMaxTemplates(int maxTemplates) {
+        if (maxTemplates < 1)
+            throw new DaoException("Max templates must be greater than 0.");
+        this.maxTemplates = maxTemplates;
+        return this;
+    }
+
+    /**
+     * 设置敏感的命名参数名称，名称中包含这些字符（忽略大小写）的参数值被隐藏。
+     */
+    public SlowQueryLog setSensitiveNames(String... sensitiveNames) {
+        Set<String> names = new HashSet<>();
+        if (sensitiveNames != null) {
+            for (String name : sensitiveNames)
+                names.add(name.toLowerCase(Locale.ROOT));
+        }
+        this.sensitiveNames = names;
+        return this;
+    }
+
+    /**
+     * 设置自定义的参数隐藏器，为null时使用敏感名称和最大长度处理。
+     */
+    public SlowQueryLog setParamRedactor(ParamRedactor paramRedactor) {
+        this.paramRedactor = paramRedactor;
+        return this;
+    }
+
+    /**
+     * 为JdbcOperations或命名JdbcOperations添加慢查询日志，同一个对象返回同一个代理。
+     */
+    public <T> T wrap(T operations, Class<T> type) {
+        if (operations == null || operations instanceof Logged)
+            return operations;
+        return type.cast(wrapped.computeIfAbsent(operations, target -> Proxy.newProxyInstance(
+                type.getClassLoader(), new Class[]{type, Logged.class}, (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Logged.class)
+                        return target;
+                    if ("equals".equals(method.getName()) && method.getParameterCount() == 1)
+                        return proxy == args[0];
+                    if ("hashCode".equals(method.getName()) && method.getParameterCount() == 0)
+                        return System.identityHashCode(proxy);
+                    String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+                    long start = sql == null ? 0 : System.nanoTime();
+                    Throwable error = null;
+                    try {
+                        return method.invoke(target, args);
+                    } catch (InvocationTargetException e) {
+                        error = e.getTargetException();
+                        throw error;
+                    } finally {
+                        if (sql != null)
+                            record(sql, args, System.nanoTime() - start, error);
+                    }
+                })));
+    }
+
+    /**
+     * 去掉慢查询日志代理，返回原来的对象。
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T unwrap(T operations) {
+        return operations instanceof Logged ? (T) ((Logged) operations).getLoggedTarget() : operations;
+    }
+
+    /**
+     * 记录一次执行，超过阈值时输出警告，否则按采样率输出。
+     */
+    private void record(String sql, Object[] args, long nanos, Throwable error) {
+        ConcurrentMap<String, OperationStats> current = templates;
+        String template = DaoMetrics.normalizeSql(sql);
+        OperationStats stats = current.get(template);
+        if (stats == null && current.size() < maxTemplates)
+            stats = current.computeIfAbsent(template, OperationStats::new);
+        if (stats != null)
+            stats.record(nanos, 0, error != null);
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        if (millis >= thresholdMillis) {
+            if (LOGGER.isWarnEnabled())
+                LOGGER.warn("Slow query {} ms: {}{}", millis, sql, formatParams(args));
+        } else if (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            if (LOGGER.isInfoEnabled())
+                LOGGER.info("Sampled query {} ms: {}{}", millis, sql, formatParams(args));
+        }
+    }
+
+    /**
+     * 格式化参数，未开启记录参数时为空。
+     */
+    private String formatParams(Object[] args) {
+        if (!captureParams || args == null || args.length < 2)
+            return "";
+        Object params = args[args.length - 1];
+        if (params instanceof Object[]) {
+            Object[] values = (Object[]) params;
+            List<Object> redacted = new ArrayList<>(values.length);
+            for (Object value : values)
+                redacted.add(redact(null, value));
+            return " " + redacted;
+        }
+        if (params instanceof MapSqlParameterSource)
+            params = ((MapSqlParameterSource) params).getValues();
+        if (params instanceof Map) {
+            StringBuilder builder = new StringBuilder(" {");
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) params).entrySet()) {
+                if (builder.length() > 2)
+                    builder.append(", ");
+                String name = String.valueOf(entry.getKey());
+                builder.append(name).append('=').append(redact(name, entry.getValue()));
+            }
+            return builder.append('}').toString();
+        }
+        if (params instanceof BeanPropertySqlParameterSource) {
+            BeanPropertySqlParameterSource source = (BeanPropertySqlParameterSource) params;
+            StringBuilder builder = new StringBuilder(" {");
+            for (String name : source.getReadablePropertyNames()) {
+                if (builder.length() > 2)
+                    builder.append(", ");
+                builder.append(name).append('=').append(redact(name, source.getValue(name)));
+            }
+            return builder.append('}').toString();
+        }
+        if (params instanceof SqlParameterSource[])
+            return " [batch of " + ((SqlParameterSource[]) params).length + "]";
+        if (params instanceof Collection)
+            return " [batch of " + ((Collection) params).size() + "]";
+        return "";
+    }
+
+    /**
+     * 隐藏敏感参数，截断过长的值。
+     */
+    private Object redact(String name, Object value) {
+        if (paramRedactor != null)
+            return paramRedactor.redact(name, value);
+        if (name == null && maskPositionalParams)
+            return REDACTED;
+        if (name != null) {
+            String lower = name.toLowerCase(Locale.ROOT);
+            for (String sensitive : sensitiveNames) {
+                if (lower.contains(sensitive))
+                    return REDACTED;
+            }
+        }
+        if (value instanceof byte[])
+            return "byte[" + ((byte[]) value).length + "]";
+        if (value instanceof String && ((String) value).length() > maxParamLength)
+            return ((String) value).substring(0, maxParamLength) + "...";
+        return value;
+    }
+
+    /**
+     * 获取当前统计周期中平均用时最长的若干个语句模板。
+     */
+    public List<OperationStats.Snapshot> getTopSlowest(int topN) {
+        List<OperationStats.Snapshot> snapshots = new ArrayList<>();
+        for (OperationStats stats : templates.values())
+            snapshots.add(stats.snapshot());
+        snapshots.sort(Comparator.comparingDouble(OperationStats.Snapshot::getMeanMillis).reversed());
+        return snapshots.size() > topN ? new ArrayList<>(snapshots.subList(0, topN)) : snapshots;
+    }
+
+    /**
+     * 输出平均用时最长的若干个语句模板并开始新的统计周期。
+     */
+    public List<OperationStats.Snapshot> report(int topN) {
+        List<OperationStats.Snapshot> top = getTopSlowest(topN);
+        templates = new ConcurrentHashMap<>();
+        for (OperationStats.Snapshot snapshot : top)
+            LOGGER.info("Slowest query template: {}", snapshot);
+        return top;
+    }
+
+    /**
+     * 每隔intervalMillis毫秒输出一次平均用时最长的topN个语句模板。
+     */
+    public synchronized SlowQueryLog startReporting(long intervalMillis, int topN) {
+        if (intervalMillis < 1 || topN < 1)
+            throw new DaoException("Interval millis or top n is invalid.");
+        if (reporter != null)
+            reporter.shutdown();
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "dandelion-slow-query-report");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleWithFixedDelay(() -> {
+            try {
+                report(topN);
+            } catch (RuntimeException e) {
+                LOGGER.error("Slow query report failed.", e);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    /**
+     * 停止定期输出。
+     */
+    @Override
+    public synchronized void close() {
+        if (reporter != null) {
+            reporter.shutdown();
+            reporter = null;
+        }
+    }
+
+}
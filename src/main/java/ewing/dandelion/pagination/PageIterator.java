@@ -0,0 +1,176 @@
+package ewing.dandelion.pagination;
+
+import ewing.dandelion.DaoException;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 分页迭代器，在后台线程中预先加载后续页，调用者处理当前页时下一页已在查询中。
+ * 预加载的页数有上限，迭代结束或关闭时停止加载，未迭代完时应调用close方法。
+ *
+ * @author Ewing
+ **/
+public class PageIterator<E> implements Iterator<List<E>>, AutoCloseable {
+
+    /**
+     * 默认的后台加载线程池，使用守护线程。
+     */
+    private static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactoryImpl());
+
+    /**
+     * 结束标记。
+     */
+    private static final Object END = new Object();
+
+    private final int pageSize;
+
+    private final PageLoader<E> pageLoader;
+
+    private final BlockingQueue<Object> pages;
+
+    private final Future<?> producer;
+
+    private volatile boolean closed;
+
+    private Object next;
+
+    /**
+     * 页面加载器，根据上一页的最后一个实体（第一页为null）和偏移量加载一页。
+     */
+    @FunctionalInterface
+    public interface PageLoader<E> {
+        List<E> load(E last, int offset);
+    }
+
+    /**
+     * 使用默认的后台线程池初始化分页迭代器。
+     */
+    public PageIterator(int pageSize, int prefetch, PageLoader<E> pageLoader) {
+        this(pageSize, prefetch, pageLoader, DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * 初始化分页迭代器，prefetch为最多预先加载且未被取走的页数。
+     */
+    public PageIterator(int pageSize, int prefetch, PageLoader<E> pageLoader, ExecutorService executor) {
+        if (pageSize < 1 || prefetch < 1 || pageLoader == null || executor == null)
+            throw new DaoException("Page size or prefetch or loader or executor is invalid.");
+        this.pageSize = pageSize;
+        this.pageLoader = pageLoader;
+        this.pages = new LinkedBlockingQueue<>(prefetch);
+        this.producer = executor.submit(this::produce);
+    }
+
+    /**
+     * 后台线程依次加载页面，队列满时等待。
+     */
+    private void produce() {
+        E last = null;
+        int offset = 0;
+        try {
+            while (!closed) {
+                List<E> page = pageLoader.load(last, offset);
+                if (page.isEmpty())
+                    break;
+                pages.put(page);
+                if (page.size() < pageSize)
+                    break;
+                last = page.get(page.size() - 1);
+                offset += page.size();
+            }
+            pages.put(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            try {
+                pages.put(new Failure(e));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 是否还有下一页，会等待后台加载完成。
+     */
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            if (closed)
+                return false;
+            try {
+                next = pages.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DaoException("Interrupted while waiting for page.", e);
+            }
+            if (next instanceof Failure) {
+                Throwable cause = ((Failure) next).cause;
+                close();
+                if (cause instanceof Error)
+                    throw (Error) cause;
+                throw new DaoException("Load page failed.", cause);
+            }
+        }
+        return next != END;
+    }
+
+    /**
+     * 获取下一页的内容。
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<E> next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        List<E> page = (List<E>) next;
+        next = null;
+        return page;
+    }
+
+    /**
+     * 停止后台加载并丢弃已加载的页面。
+     */
+    @Override
+    public void close() {
+        closed = true;
+        next = END;
+        producer.cancel(true);
+        pages.clear();
+    }
+
+    /**
+     * 后台加载失败的原因，交给调用者抛出。
+     */
+    private static class Failure {
+        private final Throwable cause;
+
+        private Failure(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+
+    /**
+     * 创建守护线程的线程工厂。
+     */
+    private static class ThreadFactoryImpl implements ThreadFactory {
+        private final AtomicInteger number = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "dandelion-page-" + number.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
@@ -0,0 +1,44 @@
+package ewing.dandelion.reactive;
+
+/**
+ * 与JDK9的java.util.concurrent.Flow相同的响应式流接口，支持消费者控制的背压。
+ * 项目兼容JDK8，迁移到JDK9以上时可直接适配java.util.concurrent.Flow。
+ *
+ * @author Ewing
+ */
+public final class Flow {
+
+    private Flow() {
+    }
+
+    /**
+     * 数据发布者，每个订阅者获得独立的订阅。
+     */
+    @FunctionalInterface
+    public interface Publisher<T> {
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * 数据订阅者，只有请求过的数据才会被发送。
+     */
+    public interface Subscriber<T> {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    /**
+     * 发布者与订阅者之间的订阅，用于请求数据或取消。
+     */
+    public interface Subscription {
+        void request(long n);
+
+        void cancel();
+    }
+
+}
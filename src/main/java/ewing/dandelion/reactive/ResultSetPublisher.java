@@ -0,0 +1,234 @@
+package ewing.dandelion.reactive;
+
+import ewing.dandelion.DaoException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 查询结果发布者，每个订阅在独立的线程中打开游标，按订阅者请求的数量逐批读取并发送。
+ * 没有请求时暂停读取，完成、出错或取消时关闭游标并释放连接。
+ * 查询使用独立获取的连接，不参与调用者线程中的事务。
+ * 按请求数量设置的fetchSize依赖驱动支持：PostgreSQL仅在非自动提交时使用游标，查询期间临时关闭自动提交；
+ * MySQL需要fetchSize为Integer.MIN_VALUE才逐行流式读取，此时不再按请求数量分批，取消时驱动会读完剩余的行。
+ * 其他数据库的驱动若忽略fetchSize，可能一次读取全部结果，背压只限制发送速度而不限制内存。
+ *
+ * @author Ewing
+ */
+public class ResultSetPublisher<T> implements Flow.Publisher<T> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResultSetPublisher.class);
+
+    /**
+     * 默认为每个订阅创建一个守护线程。
+     */
+    private static final Executor DEFAULT_EXECUTOR = runnable -> {
+        Thread thread = new Thread(runnable, "dandelion-publisher");
+        thread.setDaemon(true);
+        thread.start();
+    };
+
+    private final JdbcOperations jdbcOperations;
+
+    private final String sql;
+
+    private final Object[] params;
+
+    private final Function<Consumer<T>, RowCallbackHandler> handlerFactory;
+
+    private Executor executor = DEFAULT_EXECUTOR;
+
+    private int maxFetchSize = 1000;
+
+    /**
+     * 使用Sql和参数初始化，处理器工厂为每个订阅创建把行封装后交给消费者的行处理器。
+     */
+    public ResultSetPublisher(JdbcOperations jdbcOperations, String sql, Object[] params,
+                              Function<Consumer<T>, RowCallbackHandler> handlerFactory) {
+        if (jdbcOperations == null || sql == null || handlerFactory == null)
+            throw new DaoException("Jdbc operations or sql or handler factory is empty.");
+        this.jdbcOperations = jdbcOperations;
+        this.sql = sql;
+        this.params = params;
+        this.handlerFactory = handlerFactory;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * 设置执行查询的执行器，每个订阅占用一个线程直到结束。
+     */
+    public ResultSetPublisher<T> setExecutor(Executor executor) {
+        if (executor == null)
+            throw new DaoException("Executor is empty.");
+        this.executor = executor;
+        return this;
+    }
+
+    public int getMaxFetchSize() {
+        return maxFetchSize;
+    }
+
+    /**
+     * 设置每次从数据库读取的最大行数，实际读取的行数为订阅者请求的数量与此值中的较小者。
+     */
+    public ResultSetPublisher<T> setMaxFetchSize(int maxFetchSize) {
+        if (maxFetchSize < 1)
+            throw new DaoException("Max fetch size must be greater than 0.");
+        this.maxFetchSize = maxFetchSize;
+        return this;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        if (subscriber == null)
+            throw new NullPointerException("Subscriber is empty.");
+        CursorSubscription subscription = new CursorSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        executor.execute(subscription::run);
+    }
+
+    /**
+     * 一次订阅，在执行线程中读取游标。
+     */
+    private class CursorSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super T> subscriber;
+        private long demand;
+        private boolean cancelled;
+        private Throwable requestError;
+
+        private CursorSubscription(Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public synchronized void request(long n) {
+            if (cancelled)
+                return;
+            if (n < 1) {
+                requestError = new IllegalArgumentException("Request must be greater than 0.");
+            } else {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            notifyAll();
+        }
+
+        /**
+         * 等待请求，返回可发送的数量，已取消时返回0。
+         */
+        private synchronized long awaitDemand() throws InterruptedException {
+            while (demand == 0 && !cancelled && requestError == null)
+                wait();
+            if (requestError != null)
+                throw new DaoException("Invalid request.", requestError);
+            return cancelled ? 0 : demand;
+        }
+
+        private synchronized void consume() {
+            if (demand != Long.MAX_VALUE)
+                demand--;
+        }
+
+        private synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * 首次请求时执行查询，按请求的数量逐行发送。
+         */
+        private void run() {
+            try {
+                if (awaitDemand() == 0)
+                    return;
+                LOGGER.debug(sql);
+                RowCallbackHandler handler = handlerFactory.apply(this::emit);
+                jdbcOperations.execute((ConnectionCallback<Void>) connection -> {
+                    String product = connection.getMetaData().getDatabaseProductName();
+                    boolean rowStreaming = product.startsWith("MySQL") || product.startsWith("MariaDB");
+                    boolean restoreAutoCommit = product.startsWith("PostgreSQL") && connection.getAutoCommit();
+                    if (restoreAutoCommit)
+                        connection.setAutoCommit(false);
+                    PreparedStatement statement = null;
+                    ResultSet resultSet = null;
+                    try {
+                        statement = connection.prepareStatement(sql);
+                        if (params != null) {
+                            for (int i = 0; i < params.length; i++)
+                                StatementCreatorUtils.setParameterValue(statement, i + 1, SqlTypeValue.TYPE_UNKNOWN, params[i]);
+                        }
+                        statement.setFetchSize(rowStreaming ? Integer.MIN_VALUE : fetchSize(awaitDemand()));
+                        resultSet = statement.executeQuery();
+                        while (resultSet.next()) {
+                            long requested = awaitDemand();
+                            if (requested == 0)
+                                return null;
+                            if (!rowStreaming)
+                                resultSet.setFetchSize(fetchSize(requested));
+                            handler.processRow(resultSet);
+                        }
+                        return null;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for request.", e);
+                    } finally {
+                        JdbcUtils.closeResultSet(resultSet);
+                        JdbcUtils.closeStatement(statement);
+                        if (restoreAutoCommit)
+                            connection.setAutoCommit(true);
+                    }
+                });
+                if (!isCancelled())
+                    subscriber.onComplete();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(e);
+            } catch (Throwable e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * 发送一行，订阅者抛出异常时视为取消。
+         */
+        private void emit(T item) {
+            consume();
+            try {
+                subscriber.onNext(item);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Subscriber failed on next, subscription cancelled.", e);
+                cancel();
+            }
+        }
+
+        private void fail(Throwable e) {
+            if (!isCancelled()) {
+                cancel();
+                subscriber.onError(e);
+            }
+        }
+
+        private int fetchSize(long requested) {
+            return (int) Math.min(requested, maxFetchSize);
+        }
+    }
+
+}
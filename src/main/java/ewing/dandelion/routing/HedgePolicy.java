@@ -0,0 +1,91 @@
+package ewing.dandelion.routing;
+
+import ewing.dandelion.DaoException;
+
+/**
+ * 对冲读取策略，查询超过延迟时间未完成时向另一个从库发出相同的查询，使用先完成的结果。
+ * 自适应时使用最近查询用时的百分位数作为延迟时间，但不小于最小延迟时间，样本不足时使用固定的延迟时间。
+ *
+ * @author Ewing
+ */
+public class HedgePolicy {
+
+    private long delayMillis = 50;
+
+    private long minDelayMillis = 2;
+
+    private boolean adaptive;
+
+    private double percentile = 0.95;
+
+    private int minSamples = 20;
+
+    public long getDelayMillis() {
+        return delayMillis;
+    }
+
+    /**
+     * 设置固定的延迟时间（毫秒）。
+     */
+    public HedgePolicy setDelayMillis(long delayMillis) {
+        if (delayMillis < 0)
+            throw new DaoException("Delay millis must not be negative.");
+        this.delayMillis = delayMillis;
+        return this;
+    }
+
+    public long getMinDelayMillis() {
+        return minDelayMillis;
+    }
+
+    /**
+     * 设置自适应时的最小延迟时间（毫秒），避免查询很快时几乎每个查询都被对冲。
+     */
+    public HedgePolicy setMinDelayMillis(long minDelayMillis) {
+        if (minDelayMillis < 0)
+            throw new DaoException("Min delay millis must not be negative.");
+        this.minDelayMillis = minDelayMillis;
+        return this;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * 设置是否根据最近查询用时的百分位数决定延迟时间。
+     */
+    public HedgePolicy setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+        return this;
+    }
+
+    public double getPercentile() {
+        return percentile;
+    }
+
+    /**
+     * 设置自适应时使用的百分位数，如0.95。
+     */
+    public HedgePolicy setPercentile(double percentile) {
+        if (percentile <= 0 || percentile > 1)
+            throw new DaoException("Percentile must be in (0, 1].");
+        this.percentile = percentile;
+        return this;
+    }
+
+    public int getMinSamples() {
+        return minSamples;
+    }
+
+    /**
+     * 设置自适应时最少的样本数，样本不足时使用固定的延迟时间。
+     */
+    public HedgePolicy setMinSamples(int minSamples) {
+        if (minSamples < 1)
+            throw new DaoException("Min samples must be greater than 0.");
+        this.minSamples = minSamples;
+        return this;
+    }
+
+}
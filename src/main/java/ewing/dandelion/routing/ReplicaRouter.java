@@ -0,0 +1,465 @@
+package ewing.dandelion.routing;
+
+import ewing.dandelion.DaoException;
+import ewing.dandelion.async.AsyncExecutor;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.support.JdbcAccessor;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 读写分离路由，把只读查询分配到多个从库，写入仍使用主库。
+ * 在读写事务中或在primary方法打开的范围内，查询固定使用主库以读到自己的写入。
+ * DAO写入后的窗口期内，执行写入的线程的查询也使用主库，所有线程从从库读取的结果都不放入缓存，
+ * 窗口期应大于从库的复制延迟，否则从库读到的旧数据可能被缓存直到过期。
+ * 可配置对冲读取策略，查询较慢时向另一个从库发出相同的查询以降低尾部延迟。
+ *
+ * @author Ewing
+ */
+public class ReplicaRouter {
+
+    /**
+     * 当前线程固定使用主库的嵌套深度。
+     */
+    private static final ThreadLocal<int[]> PRIMARY = ThreadLocal.withInitial(() -> new int[1]);
+
+    private final Strategy strategy;
+
+    private final JdbcOperations[] replicas;
+
+    private final AtomicInteger[] inFlights;
+
+    private final AtomicLong[] routedCounts;
+
+    private final AtomicInteger counter = new AtomicInteger();
+
+    private final JdbcOperations readOperations;
+
+    private volatile HedgePolicy hedgePolicy;
+
+    private AsyncExecutor[] hedgeExecutors;
+
+    private final AtomicLong hedgeableCount = new AtomicLong();
+
+    private final AtomicLong hedgedCount = new AtomicLong();
+
+    private final AtomicLong hedgeWinCount = new AtomicLong();
+
+    private final long[] latencies = new long[256];
+
+    private long latencyCount;
+
+    private volatile long writeWindowMillis = 1000;
+
+    private final ConcurrentHashMap<String, Long> lastWriteNanos = new ConcurrentHashMap<>();
+
+    private final ThreadLocal<long[]> threadWriteNanos = new ThreadLocal<>();
+
+    /**
+     * 从库的选择策略。
+     */
+    public enum Strategy {
+        /**
+         * 依次轮流选择。
+         */
+        ROUND_ROBIN,
+        /**
+         * 选择正在执行的查询最少的从库。
+         */
+        LEAST_IN_FLIGHT
+    }
+
+    /**
+     * 使用从库的数据源初始化。
+     */
+    public ReplicaRouter(Strategy strategy, DataSource... dataSources) {
+        this(strategy, toOperations(dataSources));
+    }
+
+    /**
+     * 使用从库的JdbcOperations初始化。
+     */
+    public ReplicaRouter(Strategy strategy, JdbcOperations... replicas) {
+        if (strategy == null || replicas == null || replicas.length == 0)
+            throw new DaoException("Strategy or replicas is empty.");
+        this.strategy = strategy;
+        this.replicas = replicas.clone();
+        this.inFlights = new AtomicInteger[replicas.length];
+        this.routedCounts = new AtomicLong[replicas.length];
+        for (int i = 0; i < replicas.length; i++) {
+            if (replicas[i] == null)
+                throw new DaoException("Replica is empty.");
+            inFlights[i] = new AtomicInteger();
+            routedCounts[i] = new AtomicLong();
+        }
+        this.readOperations = (JdbcOperations) Proxy.newProxyInstance(JdbcOperations.class.getClassLoader(),
+                new Class[]{JdbcOperations.class}, (proxy, method, args) -> {
+                    if ("equals".equals(method.getName()) && method.getParameterCount() == 1)
+                        return proxy == args[0];
+                    if (method.getDeclaringClass() == Object.class)
+                        return method.invoke(this, args);
+                    int index = select();
+                    if (hedgePolicy != null && replicas.length > 1 && isHedgeable(method))
+                        return invokeHedged(index, method, args);
+                    return invoke(index, method, args);
+                });
+    }
+
+    private static JdbcOperations[] toOperations(DataSource[] dataSources) {
+        if (dataSources == null)
+            throw new DaoException("Data sources is empty.");
+        JdbcOperations[] operations = new JdbcOperations[dataSources.length];
+        for (int i = 0; i < dataSources.length; i++)
+            operations[i] = new JdbcTemplate(dataSources[i]);
+        return operations;
+    }
+
+    /**
+     * 按策略选择一个从库。
+     */
+    private int select() {
+        int start = Math.floorMod(counter.getAndIncrement(), replicas.length);
+        if (strategy == Strategy.ROUND_ROBIN)
+            return start;
+        // 从轮询位置开始找，并列时分散到不同的从库
+        int selected = start;
+        for (int i = 1; i < replicas.length; i++) {
+            int index = (start + i) % replicas.length;
+            if (inFlights[index].get() < inFlights[selected].get())
+                selected = index;
+        }
+        return selected;
+    }
+
+    /**
+     * 选择另一个从库执行对冲查询。
+     */
+    private int selectOther(int index) {
+        int selected = (index + 1) % replicas.length;
+        if (strategy == Strategy.LEAST_IN_FLIGHT) {
+            for (int i = 2; i < replicas.length; i++) {
+                int other = (index + i) % replicas.length;
+                if (inFlights[other].get() < inFlights[selected].get())
+                    selected = other;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * 在从库上执行并记录执行中的查询数。
+     */
+    private Object invoke(int index, Method method, Object[] args) throws Throwable {
+        inFlights[index].incrementAndGet();
+        routedCounts[index].incrementAndGet();
+        try {
+            return method.invoke(replicas[index], args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        } finally {
+            inFlights[index].decrementAndGet();
+        }
+    }
+
+    /**
+     * 只有返回结果的查询可以重复执行，使用回调处理行的查询会重复处理。
+     */
+    private static boolean isHedgeable(Method method) {
+        if (!method.getName().startsWith("query"))
+            return false;
+        for (Class<?> type : method.getParameterTypes()) {
+            if (type == RowCallbackHandler.class)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * 超过延迟时间未完成时向另一个从库发出相同的查询，使用先成功的结果并取消另一个。
+     */
+    private Object invokeHedged(int index, Method method, Object[] args) throws Throwable {
+        long start = System.nanoTime();
+        hedgeableCount.incrementAndGet();
+        CompletableFuture<Object> first = submit(index, method, args);
+        CompletableFuture<Object> second = null;
+        try {
+            Object result;
+            try {
+                result = first.get(getHedgeDelayNanos(), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                hedgedCount.incrementAndGet();
+                second = submit(selectOther(index), method, args);
+                result = firstSuccess(first, second, hedgeWinCount::incrementAndGet).get();
+            }
+            recordLatency(System.nanoTime() - start);
+            return result;
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DaoException("Interrupted while querying replicas.", e);
+        } finally {
+            first.cancel(true);
+            if (second != null)
+                second.cancel(true);
+        }
+    }
+
+    /**
+     * 在从库的异步执行器中执行，取消时会取消正在执行的语句。
+     */
+    private CompletableFuture<Object> submit(int index, Method method, Object[] args) {
+        return hedgeExecutors[index].submit(() -> {
+            try {
+                return invoke(index, method, args);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new DaoException("Replica query failed.", e);
+            }
+        });
+    }
+
+    /**
+     * 返回先成功的结果，都失败时返回后失败的异常，第二个先成功时执行secondWon。
+     */
+    private static CompletableFuture<Object> firstSuccess(CompletableFuture<Object> first,
+                                                          CompletableFuture<Object> second, Runnable secondWon) {
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        first.whenComplete((value, error) -> complete(result, failures, value, error));
+        second.whenComplete((value, error) -> {
+            if (complete(result, failures, value, error))
+                secondWon.run();
+        });
+        return result;
+    }
+
+    private static boolean complete(CompletableFuture<Object> result, AtomicInteger failures, Object value, Throwable error) {
+        if (error == null)
+            return result.complete(value);
+        if (failures.incrementAndGet() == 2)
+            result.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+        return false;
+    }
+
+    /**
+     * 获取对冲的延迟时间（纳秒），自适应且样本足够时使用最近查询用时的百分位数，且不小于最小延迟时间。
+     */
+    private long getHedgeDelayNanos() {
+        HedgePolicy policy = hedgePolicy;
+        long delayNanos = TimeUnit.MILLISECONDS.toNanos(policy.getDelayMillis());
+        if (!policy.isAdaptive())
+            return delayNanos;
+        long[] samples;
+        synchronized (latencies) {
+            if (latencyCount < policy.getMinSamples())
+                return delayNanos;
+            samples = Arrays.copyOf(latencies, (int) Math.min(latencyCount, latencies.length));
+        }
+        Arrays.sort(samples);
+        int index = (int) Math.ceil(samples.length * policy.getPercentile()) - 1;
+        return Math.max(samples[Math.max(0, index)], TimeUnit.MILLISECONDS.toNanos(policy.getMinDelayMillis()));
+    }
+
+    private void recordLatency(long nanos) {
+        synchronized (latencies) {
+            latencies[(int) (latencyCount++ % latencies.length)] = nanos;
+        }
+    }
+
+    public HedgePolicy getHedgePolicy() {
+        return hedgePolicy;
+    }
+
+    /**
+     * 设置对冲读取策略，为null时不对冲，从库须使用数据源创建以便取消语句。
+     */
+    public synchronized ReplicaRouter setHedgePolicy(HedgePolicy hedgePolicy) {
+        if (hedgePolicy != null && hedgeExecutors == null) {
+            AsyncExecutor[] executors = new AsyncExecutor[replicas.length];
+            for (int i = 0; i < replicas.length; i++) {
+                if (!(replicas[i] instanceof JdbcAccessor) || ((JdbcAccessor) replicas[i]).getDataSource() == null)
+                    throw new DaoException("Hedging requires replicas created with data sources.");
+                executors[i] = new AsyncExecutor(((JdbcAccessor) replicas[i]).getDataSource(), Integer.MAX_VALUE);
+            }
+            hedgeExecutors = executors;
+        }
+        this.hedgePolicy = hedgePolicy;
+        return this;
+    }
+
+    /**
+     * 获取可对冲的查询数。
+     */
+    public long getHedgeableCount() {
+        return hedgeableCount.get();
+    }
+
+    /**
+     * 获取发出了对冲查询的次数。
+     */
+    public long getHedgedCount() {
+        return hedgedCount.get();
+    }
+
+    /**
+     * 获取对冲查询先完成的次数。
+     */
+    public long getHedgeWinCount() {
+        return hedgeWinCount.get();
+    }
+
+    /**
+     * 获取对冲率，即发出对冲查询的比例。
+     */
+    public double getHedgeRate() {
+        long count = hedgeableCount.get();
+        return count == 0 ? 0 : (double) hedgedCount.get() / count;
+    }
+
+    /**
+     * 获取只读查询使用的JdbcOperations，每次调用时选择一个从库执行。
+     */
+    public JdbcOperations getReadOperations() {
+        return readOperations;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * 获取从库数量。
+     */
+    public int getReplicaCount() {
+        return replicas.length;
+    }
+
+    /**
+     * 获取从库正在执行的查询数。
+     */
+    public int getInFlight(int index) {
+        return inFlights[index].get();
+    }
+
+    /**
+     * 获取分配到从库的查询总数。
+     */
+    public long getRoutedCount(int index) {
+        return routedCounts[index].get();
+    }
+
+    public long getWriteWindowMillis() {
+        return writeWindowMillis;
+    }
+
+    /**
+     * 设置写入后的窗口期（毫秒），应大于从库的复制延迟，为0时不使用窗口期。
+     */
+    public ReplicaRouter setWriteWindowMillis(long writeWindowMillis) {
+        if (writeWindowMillis < 0)
+            throw new DaoException("Write window millis must not be negative.");
+        this.writeWindowMillis = writeWindowMillis;
+        return this;
+    }
+
+    /**
+     * 记录当前线程在主库上写入了表，由DAO的写入方法调用。
+     */
+    public void recordWrite(String table) {
+        if (table == null)
+            throw new DaoException("Table is empty.");
+        long now = System.nanoTime();
+        lastWriteNanos.put(getTableKey(table), now);
+        long[] threadWrite = threadWriteNanos.get();
+        if (threadWrite == null)
+            threadWriteNanos.set(new long[]{now});
+        else
+            threadWrite[0] = now;
+    }
+
+    /**
+     * 是否在任意线程最近一次写入该表后的窗口期内，此时从库中该表的结果可能落后，不应放入缓存。
+     */
+    public boolean isWriteWindowOpen(String table) {
+        Long lastWrite = lastWriteNanos.get(getTableKey(table));
+        return lastWrite != null && System.nanoTime() - lastWrite < TimeUnit.MILLISECONDS.toNanos(writeWindowMillis);
+    }
+
+    /**
+     * 表名不区分大小写且忽略模式名前缀。
+     */
+    private static String getTableKey(String table) {
+        return table.substring(table.lastIndexOf('.') + 1).toUpperCase(Locale.US);
+    }
+
+    /**
+     * 当前线程是否应使用主库，即必须使用主库或在当前线程写入后的窗口期内。
+     */
+    public boolean isPrimaryPreferred() {
+        if (isPrimaryRequired())
+            return true;
+        long[] threadWrite = threadWriteNanos.get();
+        if (threadWrite == null)
+            return false;
+        if (System.nanoTime() - threadWrite[0] < TimeUnit.MILLISECONDS.toNanos(writeWindowMillis))
+            return true;
+        threadWriteNanos.remove();
+        return false;
+    }
+
+    /**
+     * 打开固定使用主库的范围，关闭后恢复，可嵌套。
+     */
+    public static Scope primary() {
+        PRIMARY.get()[0]++;
+        return new Scope();
+    }
+
+    /**
+     * 当前线程是否必须使用主库，即在读写事务中或在primary范围内。
+     */
+    public static boolean isPrimaryRequired() {
+        if (PRIMARY.get()[0] > 0)
+            return true;
+        return TransactionSynchronizationManager.isActualTransactionActive()
+                && !TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+    }
+
+    /**
+     * 固定使用主库的范围。
+     */
+    public static class Scope implements AutoCloseable {
+        private boolean closed;
+
+        private Scope() {
+        }
+
+        @Override
+        public void close() {
+            if (closed)
+                return;
+            closed = true;
+            if (--PRIMARY.get()[0] <= 0)
+                PRIMARY.remove();
+        }
+    }
+
+}
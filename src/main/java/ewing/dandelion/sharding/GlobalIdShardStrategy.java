@@ -0,0 +1,31 @@
+package ewing.dandelion.sharding;
+
+import ewing.dandelion.DaoException;
+import ewing.dandelion.generation.GlobalIdWorker;
+
+import java.math.BigInteger;
+
+/**
+ * 按GlobalIdWorker生成的ID中的累加数分片，累加数均匀分布，联合主键时使用第一个ID。
+ *
+ * @author Ewing
+ */
+public class GlobalIdShardStrategy implements ShardStrategy {
+
+    @Override
+    public int getShard(Object[] identities, int shards) {
+        if (identities.length == 0 || identities[0] == null)
+            throw new DaoException("Identity is empty.");
+        Object identity = identities[0];
+        int counter;
+        if (identity instanceof BigInteger) {
+            counter = GlobalIdWorker.getCounter((BigInteger) identity);
+        } else if (identity instanceof String) {
+            counter = GlobalIdWorker.getCounter((String) identity);
+        } else {
+            throw new DaoException("Identity is not generated by GlobalIdWorker.");
+        }
+        return counter % shards;
+    }
+
+}
@@ -0,0 +1,33 @@
+package ewing.dandelion.sharding;
+
+import ewing.dandelion.DaoException;
+
+import java.math.BigDecimal;
+
+/**
+ * 按ID值的哈希分片，数值按十进制字符串计算哈希，不同的数值类型分到相同的分片。
+ *
+ * @author Ewing
+ */
+public class HashShardStrategy implements ShardStrategy {
+
+    @Override
+    public int getShard(Object[] identities, int shards) {
+        int hash = 1;
+        for (Object identity : identities) {
+            if (identity == null)
+                throw new DaoException("Identity is empty.");
+            hash = 31 * hash + normalize(identity).hashCode();
+        }
+        // 打散哈希值的高位
+        hash ^= hash >>> 16;
+        return Math.floorMod(hash, shards);
+    }
+
+    private static String normalize(Object identity) {
+        if (identity instanceof Number)
+            return new BigDecimal(identity.toString()).stripTrailingZeros().toPlainString();
+        return identity.toString();
+    }
+
+}
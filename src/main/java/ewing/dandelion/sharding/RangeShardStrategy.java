@@ -0,0 +1,54 @@
+package ewing.dandelion.sharding;
+
+import ewing.dandelion.DaoException;
+
+import java.math.BigDecimal;
+
+/**
+ * 按ID值的范围分片，第i个分片保存小于第i个上限的ID，最后一个分片保存其余的ID，联合主键时使用第一个ID。
+ *
+ * @author Ewing
+ */
+public class RangeShardStrategy implements ShardStrategy {
+
+    private final Comparable[] upperBounds;
+
+    /**
+     * 使用递增的上限初始化，分片数为上限数加1。
+     */
+    public RangeShardStrategy(Comparable... upperBounds) {
+        if (upperBounds == null || upperBounds.length == 0)
+            throw new DaoException("Upper bounds is empty.");
+        for (int i = 1; i < upperBounds.length; i++) {
+            if (compare(upperBounds[i - 1], upperBounds[i]) >= 0)
+                throw new DaoException("Upper bounds must be increasing.");
+        }
+        this.upperBounds = upperBounds.clone();
+    }
+
+    @Override
+    public int getShard(Object[] identities, int shards) {
+        if (shards != upperBounds.length + 1)
+            throw new DaoException("Upper bounds do not match shards.");
+        if (identities.length == 0 || identities[0] == null)
+            throw new DaoException("Identity is empty.");
+        for (int i = 0; i < upperBounds.length; i++) {
+            if (compare(identities[0], upperBounds[i]) < 0)
+                return i;
+        }
+        return upperBounds.length;
+    }
+
+    /**
+     * 比较两个值，数值转换成BigDecimal比较。
+     */
+    @SuppressWarnings("unchecked")
+    private static int compare(Object value, Object bound) {
+        if (value instanceof Number && bound instanceof Number)
+            return new BigDecimal(value.toString()).compareTo(new BigDecimal(bound.toString()));
+        if (!(value instanceof Comparable))
+            throw new DaoException("Identity is not comparable.");
+        return ((Comparable) value).compareTo(bound);
+    }
+
+}
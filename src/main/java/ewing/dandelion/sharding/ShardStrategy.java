@@ -0,0 +1,16 @@
+package ewing.dandelion.sharding;
+
+/**
+ * 分片策略，根据实体的ID值决定所在的分片。
+ *
+ * @author Ewing
+ */
+@FunctionalInterface
+public interface ShardStrategy {
+
+    /**
+     * 根据ID值（联合主键时有多个）获取分片序号，范围为0到shards-1。
+     */
+    int getShard(Object[] identities, int shards);
+
+}
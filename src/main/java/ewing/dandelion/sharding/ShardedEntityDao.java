@@ -0,0 +1,422 @@
+package ewing.dandelion.sharding;
+
+import ewing.dandelion.DaoException;
+import ewing.dandelion.EntityDao;
+import ewing.dandelion.generation.Dialect;
+import ewing.dandelion.generation.EntityInfo;
+import ewing.dandelion.generation.EntityUtils;
+import ewing.dandelion.generation.Property;
+import ewing.dandelion.generation.SqlGenerator;
+import ewing.dandelion.pagination.PageData;
+import ewing.dandelion.pagination.PageParam;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 分片的实体对象操作，根据ID把实体分配到多个数据库中，每个分片使用一个配置好的EntityDao。
+ * 单个ID的操作只访问一个分片，批量操作按分片分组，countAll、getAll和getByPage并行查询所有分片后合并。
+ * 分片之间没有分布式事务，并行的操作在各自的连接中执行，不参与调用者的事务。
+ * 添加前生成ID以确定分片，因此不支持数据库生成的ID，添加通过各分片的upsertBatch写入，Sql生成器需要配置数据库方言。
+ * 按属性排序分页时null按升序排在最前，字符串按Java的自然顺序合并，各分片数据库的排序规则应与之一致（如二进制排序规则）。
+ *
+ * @author Ewing
+ */
+public class ShardedEntityDao {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShardedEntityDao.class);
+
+    /**
+     * 默认的并行查询线程池，使用守护线程。
+     */
+    private static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "dandelion-shard");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ShardStrategy shardStrategy;
+
+    private final EntityDao[] shards;
+
+    private final SqlGenerator sqlGenerator;
+
+    private Executor executor = DEFAULT_EXECUTOR;
+
+    /**
+     * 使用分片策略和各分片的EntityDao初始化，所有分片应使用相同的Sql生成器。
+     */
+    public ShardedEntityDao(ShardStrategy shardStrategy, EntityDao... shards) {
+        if (shardStrategy == null || shards == null || shards.length == 0)
+            throw new DaoException("Shard strategy or shards is empty.");
+        for (EntityDao shard : shards) {
+            if (shard == null || shard.getSqlGenerator() == null)
+                throw new DaoException("Shard or sql generator is empty.");
+        }
+        this.shardStrategy = shardStrategy;
+        this.shards = shards.clone();
+        this.sqlGenerator = shards[0].getSqlGenerator();
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * 设置并行访问分片的执行器。
+     */
+    public ShardedEntityDao setExecutor(Executor executor) {
+        if (executor == null)
+            throw new DaoException("Executor is empty.");
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * 获取分片数。
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * 获取指定序号的分片。
+     */
+    public EntityDao getShard(int index) {
+        return shards[index];
+    }
+
+    /**
+     * 根据ID或包含ID的实体或父类对象获取分片序号。
+     */
+    public int getShardIndex(Class entityClass, Object identity) {
+        if (entityClass == null || identity == null)
+            throw new DaoException("Entity class or identity is empty.");
+        EntityInfo entityInfo = sqlGenerator.getEntityInfo(entityClass);
+        if (entityInfo.getIdentities().length == 0)
+            throw new DaoException("Entity class has no identity.");
+        Object[] identities = EntityUtils.isEntityOrSuper(identity, entityClass) ?
+                EntityUtils.getEntityIds(entityInfo, identity) : new Object[]{identity};
+        int index = shardStrategy.getShard(identities, shards.length);
+        if (index < 0 || index >= shards.length)
+            throw new DaoException("Shard index out of range.");
+        return index;
+    }
+
+    /**
+     * 生成ID并添加实体对象的全部属性到所在的分片。
+     */
+    public <E> E add(E entity) {
+        if (entity == null)
+            throw new DaoException("Entity is empty.");
+        @SuppressWarnings("unchecked")
+        E[] entities = (E[]) Array.newInstance(entity.getClass(), 1);
+        entities[0] = entity;
+        addBatch(entities);
+        return entity;
+    }
+
+    /**
+     * 生成ID并按分片分组批量添加实体对象的全部属性。
+     */
+    public <E> E[] addBatch(E... entities) {
+        if (entities == null || entities.length == 0)
+            throw new DaoException("Entities is empty.");
+        Class entityClass = entities[0].getClass();
+        if (sqlGenerator.getEntityInfo(entityClass).getAutoIncrements().length > 0)
+            throw new DaoException("Sharding does not support database generated identity.");
+        for (E entity : entities) {
+            if (entity == null)
+                throw new DaoException("Entity is empty.");
+            sqlGenerator.generateIdentity(entity);
+        }
+        // 使用已生成的ID写入，分片DAO会使其缓存失效
+        scatter(group(entityClass, entities),
+                (index, group) -> () -> shards[index].upsertBatch(toArray(entities, group)));
+        return entities;
+    }
+
+    /**
+     * 更新实体对象的全部属性到所在的分片。
+     */
+    public <E> E update(E entity) {
+        if (entity == null)
+            throw new DaoException("Entity is empty.");
+        return shards[getShardIndex(entity.getClass(), entity)].update(entity);
+    }
+
+    /**
+     * 按分片分组批量更新实体对象的全部属性。
+     */
+    public <E> E[] updateBatch(E... entities) {
+        if (entities == null || entities.length == 0)
+            throw new DaoException("Entities is empty.");
+        scatter(group(entities[0].getClass(), entities),
+                (index, group) -> () -> shards[index].updateBatch(toArray(entities, group)));
+        return entities;
+    }
+
+    /**
+     * 根据ID或包含ID的实体或父类对象从所在的分片获取实体对象的全部属性。
+     */
+    public <E> E get(Class<E> entityClass, Object identity) {
+        return shards[getShardIndex(entityClass, identity)].get(entityClass, identity);
+    }
+
+    /**
+     * 按分片分组并行获取多个实体对象的全部属性。
+     */
+    public <E> List<E> getBatch(Class<E> entityClass, Object... identities) {
+        if (entityClass == null || identities == null || identities.length == 0)
+            throw new DaoException("Entity class or identities is empty.");
+        List<List<E>> parts = scatter(group(entityClass, identities),
+                (index, group) -> () -> shards[index].getBatch(entityClass, group.toArray()));
+        List<E> entities = new ArrayList<>(identities.length);
+        for (List<E> part : parts)
+            entities.addAll(part);
+        return entities;
+    }
+
+    /**
+     * 并行查询所有分片的实体对象总数。
+     */
+    public long countAll(Class entityClass) {
+        long total = 0;
+        for (Long count : scatterAll(shard -> shard.countAll(entityClass)))
+            total += count;
+        return total;
+    }
+
+    /**
+     * 并行查询所有分片的全部实体对象。
+     */
+    public <E> List<E> getAll(Class<E> entityClass) {
+        List<E> entities = new ArrayList<>();
+        for (List<E> part : scatterAll(shard -> shard.getAll(entityClass)))
+            entities.addAll(part);
+        return entities;
+    }
+
+    /**
+     * 按ID排序分页查询全部实体对象。
+     */
+    public <E> PageData<E> getByPage(Class<E> entityClass, PageParam pageParam) {
+        if (entityClass == null || pageParam == null)
+            throw new DaoException("Entity class or page param is empty.");
+        Property[] identities = sqlGenerator.getEntityInfo(entityClass).getIdentities();
+        if (identities.length == 0)
+            throw new DaoException("Entity class has no identity.");
+        Comparator<E> comparator = null;
+        for (Property identity : identities) {
+            Comparator<E> next = propertyComparator(identity, false);
+            comparator = comparator == null ? next : comparator.thenComparing(next);
+        }
+        return mergePage(entityClass, pageParam, sqlGenerator.getSelectOrderById(entityClass), comparator);
+    }
+
+    /**
+     * 按指定属性排序分页查询全部实体对象，每个分片查询前offset+limit条后按排序合并，排序相同时按ID排序。
+     */
+    public <E> PageData<E> getByPage(Class<E> entityClass, PageParam pageParam, String sortProperty, boolean descending) {
+        if (entityClass == null || pageParam == null || sortProperty == null)
+            throw new DaoException("Entity class or page param or sort property is empty.");
+        Property sort = null;
+        for (Property property : sqlGenerator.getEntityInfo(entityClass).getProperties()) {
+            if (property.getName().equals(sortProperty))
+                sort = property;
+        }
+        if (sort == null)
+            throw new DaoException("Sort property not found.");
+        Property[] identities = sqlGenerator.getEntityInfo(entityClass).getIdentities();
+        if (identities.length == 0)
+            throw new DaoException("Entity class has no identity.");
+        StringBuilder sql = new StringBuilder(sqlGenerator.getSelectWhereTrue(entityClass))
+                .append(" ORDER BY ").append(sort.getSqlName()).append(descending ? " DESC" : "")
+                .append(getNullsOrder(descending));
+        Comparator<E> comparator = propertyComparator(sort, descending);
+        for (Property identity : identities) {
+            sql.append(',').append(identity.getSqlName());
+            comparator = comparator.thenComparing(propertyComparator(identity, false));
+        }
+        return mergePage(entityClass, pageParam, sql.toString(), comparator);
+    }
+
+    /**
+     * 根据ID或包含ID的实体或父类对象从所在的分片删除实体对象。
+     */
+    public void delete(Class entityClass, Object identity) {
+        shards[getShardIndex(entityClass, identity)].delete(entityClass, identity);
+    }
+
+    /**
+     * 从所在的分片删除实体对象。
+     */
+    public void deleteEntity(Object entity) {
+        if (entity == null)
+            throw new DaoException("Entity is empty.");
+        shards[getShardIndex(entity.getClass(), entity)].deleteEntity(entity);
+    }
+
+    /**
+     * 按分片分组批量删除实体对象。
+     */
+    public void deleteBatch(Object... entities) {
+        if (entities == null || entities.length == 0)
+            throw new DaoException("Entities is empty.");
+        scatter(group(entities[0].getClass(), entities), (index, group) -> () -> {
+            shards[index].deleteBatch(group.toArray());
+            return null;
+        });
+    }
+
+    /**
+     * 每个分片按顺序查询前offset+limit条，按排序多路归并后取出当前页。
+     */
+    private <E> PageData<E> mergePage(Class<E> entityClass, PageParam pageParam, String sql, Comparator<E> comparator) {
+        String pageSql = sql + " LIMIT " + ((long) pageParam.getOffset() + pageParam.getLimit());
+        LOGGER.debug(pageSql);
+        List<List<E>> parts = scatterAll(shard -> shard.queryEntityList(entityClass, pageSql));
+        PriorityQueue<Cursor<E>> cursors = new PriorityQueue<>(parts.size(),
+                (a, b) -> comparator.compare(a.current, b.current));
+        for (List<E> part : parts) {
+            Iterator<E> iterator = part.iterator();
+            if (iterator.hasNext())
+                cursors.add(new Cursor<>(iterator));
+        }
+        List<E> content = new ArrayList<>(pageParam.getLimit());
+        int skipped = 0;
+        while (!cursors.isEmpty() && content.size() < pageParam.getLimit()) {
+            Cursor<E> cursor = cursors.poll();
+            if (skipped < pageParam.getOffset())
+                skipped++;
+            else
+                content.add(cursor.current);
+            if (cursor.next())
+                cursors.add(cursor);
+        }
+        PageData<E> pageData = new PageData<>(content);
+        return pageData.setTotal(pageParam.isCount() ? countAll(entityClass) : content.size());
+    }
+
+    /**
+     * 生成与比较器一致的null排序，升序时null在前，降序时null在后，MySQL默认如此且不支持该语法。
+     */
+    private String getNullsOrder(boolean descending) {
+        Dialect dialect = sqlGenerator.getDialect();
+        if (dialect == Dialect.H2 || dialect == Dialect.POSTGRESQL)
+            return descending ? " NULLS LAST" : " NULLS FIRST";
+        return "";
+    }
+
+    /**
+     * 按属性值比较实体对象，null排在升序的最前面。
+     */
+    @SuppressWarnings("unchecked")
+    private static <E> Comparator<E> propertyComparator(Property property, boolean descending) {
+        Comparator<Comparable> natural = Comparator.nullsFirst(Comparator.naturalOrder());
+        Comparator<E> comparator = Comparator.comparing(entity -> {
+            try {
+                return (Comparable) property.getReadMethod().invoke(entity);
+            } catch (ReflectiveOperationException e) {
+                throw new DaoException("Failed to read entity property value.", e);
+            }
+        }, natural);
+        return descending ? comparator.reversed() : comparator;
+    }
+
+    /**
+     * 按所在的分片分组。
+     */
+    private <T> Map<Integer, List<T>> group(Class entityClass, T[] items) {
+        Map<Integer, List<T>> groups = new LinkedHashMap<>();
+        for (T item : items)
+            groups.computeIfAbsent(getShardIndex(entityClass, item), index -> new ArrayList<>()).add(item);
+        return groups;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> E[] toArray(E[] source, List<E> items) {
+        return items.toArray((E[]) Array.newInstance(source.getClass().getComponentType(), items.size()));
+    }
+
+    /**
+     * 在所有分片上并行执行。
+     */
+    private <T> List<T> scatterAll(Function<EntityDao, T> operation) {
+        Map<Integer, EntityDao> all = new LinkedHashMap<>();
+        for (int i = 0; i < shards.length; i++)
+            all.put(i, shards[i]);
+        return scatter(all, (index, shard) -> () -> operation.apply(shard));
+    }
+
+    /**
+     * 在分组对应的分片上并行执行，只有一个分组时在当前线程执行。
+     */
+    private <G, T> List<T> scatter(Map<Integer, G> groups, ShardTask<G, T> task) {
+        List<T> results = new ArrayList<>(groups.size());
+        if (groups.size() == 1) {
+            Map.Entry<Integer, G> entry = groups.entrySet().iterator().next();
+            results.add(task.create(entry.getKey(), entry.getValue()).get());
+            return results;
+        }
+        List<CompletableFuture<T>> futures = new ArrayList<>(groups.size());
+        for (Map.Entry<Integer, G> entry : groups.entrySet())
+            futures.add(CompletableFuture.supplyAsync(task.create(entry.getKey(), entry.getValue()), executor));
+        RuntimeException failure = null;
+        for (CompletableFuture<T> future : futures) {
+            try {
+                results.add(future.join());
+            } catch (CompletionException e) {
+                if (failure == null)
+                    failure = e.getCause() instanceof RuntimeException ?
+                            (RuntimeException) e.getCause() : new DaoException("Shard operation failed.", e.getCause());
+            }
+        }
+        if (failure != null)
+            throw failure;
+        return results;
+    }
+
+    /**
+     * 创建在一个分片上执行的操作。
+     */
+    @FunctionalInterface
+    private interface ShardTask<G, T> {
+        Supplier<T> create(int index, G group);
+    }
+
+    /**
+     * 归并时一个分片的结果游标。
+     */
+    private static class Cursor<E> {
+        private final Iterator<E> iterator;
+        private E current;
+
+        private Cursor(Iterator<E> iterator) {
+            this.iterator = iterator;
+            this.current = iterator.next();
+        }
+
+        private boolean next() {
+            if (!iterator.hasNext())
+                return false;
+            current = iterator.next();
+            return true;
+        }
+    }
+
+}
@@ -4,6 +4,7 @@ import ewing.dandelion.EntityBaseDao;
 import ewing.dandelion.EntityDao;
 import ewing.dandelion.SimpleBaseDao;
 import ewing.dandelion.SimpleDao;
+import ewing.dandelion.generation.Dialect;
 import ewing.dandelion.generation.SqlGenerator;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
@@ -26,11 +27,11 @@ public class BootDaoConfig {
 
     /**
      * 配置Sql生成器对象。
-     * 构造参数为true时使用下划线风格。
+     * 构造参数为true时使用下划线风格，方言用于生成插入或更新等数据库特有的语句。
      */
     @Bean
     public SqlGenerator sqlGenerator() {
-        return new SqlGenerator();
+        return new SqlGenerator(false, Dialect.H2);
     }
 
     /**
@@ -1,22 +1,82 @@
 package ewing.boot;
 
+import ewing.boot.entity.Log;
 import ewing.boot.entity.MyUser;
+import ewing.boot.entity.Team;
+import ewing.dandelion.DaoException;
+import ewing.dandelion.EntityBaseDao;
 import ewing.dandelion.EntityDao;
+import ewing.dandelion.async.AsyncEntityBaseDao;
+import ewing.dandelion.async.AsyncEntityDao;
+import ewing.dandelion.async.AsyncExecutor;
+import ewing.dandelion.batch.BulkLoadResult;
+import ewing.dandelion.batch.BulkLoader;
+import ewing.dandelion.batch.ParallelBatchWriter;
+import ewing.dandelion.batch.PartitionResult;
+import ewing.dandelion.buffer.WriteBehindBuffer;
+import ewing.dandelion.cache.CacheStats;
+import ewing.dandelion.cache.IdentityFilter;
+import ewing.dandelion.cache.IdentityMap;
+import ewing.dandelion.cache.LruEntityCache;
+import ewing.dandelion.cache.QueryCache;
+import ewing.dandelion.cache.QueryOptions;
+import ewing.dandelion.cache.SingleFlight;
 import ewing.dandelion.generation.SqlGenerator;
+import ewing.dandelion.handler.CallbackSummary;
+import ewing.dandelion.metrics.DaoMetrics;
+import ewing.dandelion.metrics.MetricsRecorder;
+import ewing.dandelion.metrics.OperationStats;
+import ewing.dandelion.metrics.QueryRepeatDetector;
+import ewing.dandelion.metrics.SlowQueryLog;
 import ewing.dandelion.pagination.PageData;
 import ewing.dandelion.pagination.PageParam;
+import ewing.dandelion.reactive.Flow;
+import ewing.dandelion.routing.HedgePolicy;
+import ewing.dandelion.routing.ReplicaRouter;
+import ewing.dandelion.sharding.GlobalIdShardStrategy;
+import ewing.dandelion.sharding.ShardedEntityDao;
 import ewing.utils.RandomString;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.DatabasePopulatorUtils;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.StringUtils;
 
+import javax.management.MBeanServer;
+import javax.sql.DataSource;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest
@@ -25,6 +85,12 @@ public class EntityDaoTests {
     @Autowired
     private EntityDao entityDao;
 
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private DataSource dataSource;
+
     /**
      * 创建属性齐全的User对象。
      */
@@ -76,6 +142,15 @@ public class EntityDaoTests {
         Assert.assertTrue(entityDao.countAll(MyUser.class) >= users.length);
         clean(users);
 
+        // 多行插入批量添加对象 包含剩余的行
+        users = new MyUser[]{createUser(), createUser(), createUser(), createUser(), createUser()};
+        Assert.assertSame(users, entityDao.addBatchValues(2, users));
+        Object[] ids = new Object[users.length];
+        for (int i = 0; i < users.length; i++)
+            ids[i] = users[i].getUserId();
+        Assert.assertEquals(users.length, entityDao.getBatch(MyUser.class, ids).size());
+        clean(users);
+
         // 只保存name属性
         user = createUser();
         MyUser config = new MyUser();
@@ -149,6 +224,26 @@ public class EntityDaoTests {
             Assert.assertTrue(user.getName().equals(entityDao.get(MyUser.class, user.getUserId()).getName()));
         clean(users);
 
+        // 批量更新积极属性 不同的积极属性分组执行
+        users = new MyUser[]{createUser(), createUser(), createUser()};
+        entityDao.addBatch(users);
+        MyUser[] partials = new MyUser[users.length];
+        for (int i = 0; i < users.length; i++) {
+            partials[i] = new MyUser();
+            partials[i].setUserId(users[i].getUserId());
+            partials[i].setName(RandomString.randomChinese(3));
+            if (i % 2 == 0)
+                partials[i].setLevel(9);
+        }
+        entityDao.updatePositiveBatch(partials);
+        for (int i = 0; i < users.length; i++) {
+            result = entityDao.get(MyUser.class, users[i].getUserId());
+            Assert.assertEquals(partials[i].getName(), result.getName());
+            Assert.assertEquals(i % 2 == 0 ? 9 : 5, result.getLevel().intValue());
+            Assert.assertEquals(users[i].getDescription(), result.getDescription());
+        }
+        clean(users);
+
         // 清理测试数据
         clean(myUser);
     }
@@ -222,6 +317,13 @@ public class EntityDaoTests {
         myUser = entityDao.get(MyUser.class, users[0].getUserId());
         Assert.assertNull(myUser);
 
+        // 根据多个ID批量删除对象
+        users = new MyUser[]{createUser(), createUser(), createUser()};
+        entityDao.addBatch(users);
+        Assert.assertEquals(users.length, entityDao.deleteByIds(MyUser.class,
+                users[0].getUserId(), users[1].getUserId(), users[2].getUserId()));
+        Assert.assertTrue(entityDao.getBatch(MyUser.class, (Object[]) users).isEmpty());
+
         // 删除全部对象
         user = addUser();
         entityDao.deleteAll(MyUser.class);
@@ -242,8 +344,896 @@ public class EntityDaoTests {
         PageData<MyUser> users = entityDao.queryEntityPage(new PageParam(), MyUser.class, sql);
         Assert.assertTrue(users.getTotal() > 0);
 
+        // 逐条回调处理
+        List<String> names = new ArrayList<>();
+        CallbackSummary summary = entityDao.forEach(MyUser.class, sql, myUser -> names.add(myUser.getName()));
+        Assert.assertTrue(summary.getRows() > 0);
+        Assert.assertEquals(summary.getRows(), names.size());
+        Assert.assertTrue(names.contains(user.getName()));
+
+        // 复用实体对象逐条回调处理
+        Set<MyUser> instances = new HashSet<>();
+        summary = entityDao.forEachReuse(MyUser.class, sql + " AND userId = ?", myUser -> {
+            instances.add(myUser);
+            Assert.assertEquals(user.getName(), myUser.getName());
+        }, user.getUserId());
+        Assert.assertEquals(1, summary.getRows());
+        Assert.assertEquals(1, instances.size());
+
+        // 复用实体对象时基本类型的NULL值不保留上一行的值
+        List<Integer> levels = new ArrayList<>();
+        entityDao.forEachReuse(PrimitiveRow.class, "SELECT 5 AS level UNION ALL SELECT NULL",
+                row -> levels.add(row.getLevel()));
+        Assert.assertEquals(Arrays.asList(5, 0), levels);
+
         // 清理测试数据
         clean(user);
     }
 
+    @Test
+    public void writeBehindTest() {
+        WriteBehindBuffer buffer = new WriteBehindBuffer(entityDao, 1000, 60000);
+        // 添加后多次更新合并为一次添加
+        MyUser user = createUser();
+        buffer.add(user);
+        user.setName(RandomString.randomChinese(3));
+        buffer.update(user);
+        buffer.update(user);
+        // 添加后删除相互抵消
+        MyUser removed = createUser();
+        buffer.add(removed);
+        buffer.deleteEntity(removed);
+        Assert.assertEquals(1, buffer.getQueueDepth());
+        Assert.assertNull(entityDao.get(MyUser.class, user.getUserId()));
+
+        buffer.flush();
+        Assert.assertEquals(0, buffer.getQueueDepth());
+        Assert.assertEquals(user.getName(), entityDao.get(MyUser.class, user.getUserId()).getName());
+        Assert.assertNull(entityDao.get(MyUser.class, removed.getUserId()));
+        Assert.assertTrue(buffer.getCoalescingRatio() > 1);
+
+        // 关闭时写入剩余的操作
+        buffer.deleteEntity(user);
+        buffer.close();
+        Assert.assertNull(entityDao.get(MyUser.class, user.getUserId()));
+
+        // 写入失败时未写入的操作放回缓冲区，与之后的写入合并
+        WriteBehindBuffer failing = new WriteBehindBuffer(entityDao, 1000, 60000);
+        MyUser invalid = createUser();
+        invalid.setName(RandomString.randomChinese(100));
+        failing.add(invalid);
+        try {
+            failing.flush();
+            Assert.fail("Flush should fail.");
+        } catch (RuntimeException e) {
+            Assert.assertEquals(1, failing.getQueueDepth());
+        }
+        invalid.setName(RandomString.randomChinese(3));
+        failing.update(invalid);
+        failing.close();
+        Assert.assertEquals(invalid.getName(), entityDao.get(MyUser.class, invalid.getUserId()).getName());
+        clean(invalid);
+
+        // 超过最大尝试次数后丢弃，不阻塞其他写入
+        WriteBehindBuffer limited = new WriteBehindBuffer(entityDao, 1000, 60000).setMaxAttempts(2).setMaxPending(2);
+        MyUser rejected = createUser();
+        rejected.setName(RandomString.randomChinese(100));
+        limited.add(rejected);
+        MyUser accepted = createUser();
+        limited.add(accepted);
+        try {
+            limited.add(createUser());
+            Assert.fail("Full buffer should reject writes.");
+        } catch (DaoException e) {
+            Assert.assertEquals(2, limited.getQueueDepth());
+        }
+        for (int i = 0; i < 2; i++) {
+            try {
+                limited.flush();
+                Assert.fail("Flush should fail.");
+            } catch (RuntimeException e) {
+                Assert.assertEquals(1 - i, limited.getQueueDepth());
+            }
+        }
+        Assert.assertEquals(1, limited.getDroppedCount());
+        Assert.assertNotNull(entityDao.get(MyUser.class, accepted.getUserId()));
+        limited.close();
+        try {
+            limited.update(accepted);
+            Assert.fail("Closed buffer should reject writes.");
+        } catch (DaoException e) {
+            Assert.assertEquals(0, limited.getQueueDepth());
+        }
+        clean(accepted);
+
+        // 写入数据库前没有ID的实体不能合并
+        WriteBehindBuffer unsupported = new WriteBehindBuffer(entityDao, 1000, 60000);
+        try {
+            unsupported.add(new Log());
+            Assert.fail("Auto increment identity should be rejected.");
+        } catch (DaoException e) {
+            Assert.assertEquals(0, unsupported.getQueueDepth());
+        }
+        try {
+            unsupported.update(new MyUser());
+            Assert.fail("Empty identity should be rejected.");
+        } catch (DaoException e) {
+            Assert.assertEquals(0, unsupported.getQueueDepth());
+        }
+        unsupported.close();
+    }
+
+    @Test
+    public void bulkLoadTest() {
+        // 多个连接并行导入 包含不满一批的剩余数据
+        List<MyUser> users = new ArrayList<>();
+        for (int i = 0; i < 25; i++)
+            users.add(createUser());
+        BulkLoader loader = new BulkLoader(entityDao.getJdbcOperations(), entityDao.getSqlGenerator())
+                .setBatchSize(4).setCommitBatches(2).setThreads(2).setMaxInFlight(2);
+        BulkLoadResult result = loader.load(MyUser.class, users.stream());
+        Assert.assertEquals(users.size(), result.getRows());
+        Assert.assertTrue(result.getRowsPerSecond() > 0);
+        MyUser[] loaded = users.toArray(new MyUser[users.size()]);
+        Assert.assertEquals(users.size(), entityDao.getBatch(MyUser.class, (Object[]) loaded).size());
+        clean(loaded);
+    }
+
+    @Test
+    public void parallelBatchTest() {
+        ParallelBatchWriter writer = new ParallelBatchWriter(entityDao, transactionManager)
+                .setPartitions(3).setThreads(2);
+        MyUser[] users = {createUser(), createUser(), createUser(), createUser(), createUser()};
+        PartitionResult result = writer.addBatch(users);
+        Assert.assertTrue(result.isSuccess());
+        Assert.assertEquals(users.length, result.getSucceededRows());
+
+        // 按ID哈希分区更新 其中一个分区因名称过长而失败
+        for (MyUser user : users)
+            user.setName(RandomString.randomChinese(3));
+        users[0].setName(RandomString.randomChinese(100));
+        result = writer.setHashPartition(true).updateBatch(users);
+        Assert.assertEquals(1, result.getFailures().size());
+        Object[] failed = result.getFailures().get(0).getEntities();
+        Assert.assertEquals(users.length, result.getSucceededRows() + failed.length);
+        for (MyUser user : users) {
+            boolean updated = user.getName().equals(entityDao.get(MyUser.class, user.getUserId()).getName());
+            Assert.assertEquals(!Arrays.asList(failed).contains(user), updated);
+        }
+        clean(users);
+    }
+
+    @Test
+    public void generatedKeyTest() {
+        Log log = new Log();
+        log.setContent(RandomString.randomChinese(5));
+        log.setCreateTime(new Date());
+        entityDao.add(log);
+        Assert.assertNotNull(log.getLogId());
+        Assert.assertEquals(log.getContent(), entityDao.get(Log.class, log.getLogId()).getContent());
+
+        // 批量添加时按顺序取回生成的ID
+        Log[] logs = new Log[3];
+        for (int i = 0; i < logs.length; i++) {
+            logs[i] = new Log();
+            logs[i].setContent(RandomString.randomChinese(5));
+        }
+        entityDao.addBatch(logs);
+        for (Log added : logs) {
+            Assert.assertTrue(added.getLogId() > log.getLogId());
+            Assert.assertEquals(added.getContent(), entityDao.get(Log.class, added.getLogId()).getContent());
+        }
+        entityDao.deleteBatch(logs);
+        entityDao.deleteEntity(log);
+
+        // 数据库生成的ID不支持插入或更新
+        try {
+            entityDao.upsert(log);
+            Assert.fail("Upsert should be rejected.");
+        } catch (DaoException e) {
+            Assert.assertNull(entityDao.get(Log.class, log.getLogId()));
+        }
+
+        // 多行插入和流式导入不能取回生成的ID
+        long count = entityDao.countAll(Log.class);
+        try {
+            entityDao.addBatchValues(10, logs);
+            Assert.fail("Batch values should be rejected.");
+        } catch (DaoException e) {
+            Assert.assertEquals(count, entityDao.countAll(Log.class));
+        }
+        try {
+            new BulkLoader(entityDao.getJdbcOperations(), entityDao.getSqlGenerator())
+                    .load(Log.class, Arrays.stream(logs));
+            Assert.fail("Bulk load should be rejected.");
+        } catch (DaoException e) {
+            Assert.assertEquals(count, entityDao.countAll(Log.class));
+        }
+    }
+
+    @Test
+    public void entityCacheTest() throws Exception {
+        SqlGenerator sqlGenerator = entityDao.getSqlGenerator();
+        LruEntityCache cache = new LruEntityCache(2, 60000);
+        sqlGenerator.setEntityCache(MyUser.class, cache);
+        try {
+            MyUser[] users = {createUser(), createUser(), createUser()};
+            entityDao.addBatch(users);
+            // 缓存中保存的是副本 修改返回的对象不影响缓存
+            entityDao.get(MyUser.class, users[0].getUserId()).setName(RandomString.randomChinese(3));
+            Assert.assertEquals(users[0].getName(), entityDao.get(MyUser.class, users[0].getUserId()).getName());
+
+            // 批量获取只加载未命中的部分 超出数量时淘汰最久未使用的
+            Assert.assertEquals(3, entityDao.getBatch(MyUser.class, (Object[]) users).size());
+            CacheStats stats = cache.getStats();
+            Assert.assertEquals(2, stats.getHits());
+            Assert.assertEquals(3, stats.getMisses());
+            Assert.assertEquals(1, stats.getEvictions());
+
+            // 写入后缓存失效
+            users[1].setName(RandomString.randomChinese(3));
+            entityDao.update(users[1]);
+            Assert.assertEquals(users[1].getName(), entityDao.get(MyUser.class, users[1].getUserId()).getName());
+
+            // 事务中读取的未提交数据不放入缓存 回滚后缓存中仍是已提交的值
+            String committedName = users[1].getName();
+            new TransactionTemplate(transactionManager).execute(status -> {
+                MyUser changed = entityDao.get(MyUser.class, users[1].getUserId());
+                changed.setName(RandomString.randomChinese(3));
+                entityDao.update(changed);
+                Assert.assertEquals(changed.getName(), entityDao.get(MyUser.class, users[1].getUserId()).getName());
+                status.setRollbackOnly();
+                return null;
+            });
+            Assert.assertEquals(committedName, entityDao.get(MyUser.class, users[1].getUserId()).getName());
+            Object cached = cache.get(Collections.singletonList(users[1].getUserId()));
+            Assert.assertEquals(committedName, ((MyUser) cached).getName());
+
+            // 写入之前开始的加载在写入之后完成时不放入缓存
+            CountDownLatch loading = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            EntityDao blockingDao = newBlockingDao(sqlGenerator, loading, release);
+            cache.clear();
+            CompletableFuture<MyUser> stale = CompletableFuture.supplyAsync(
+                    () -> blockingDao.get(MyUser.class, users[2].getUserId()));
+            Assert.assertTrue(loading.await(5, TimeUnit.SECONDS));
+            users[2].setName(RandomString.randomChinese(3));
+            entityDao.update(users[2]);
+            release.countDown();
+            Assert.assertNotEquals(users[2].getName(), stale.get(5, TimeUnit.SECONDS).getName());
+            Assert.assertNull(cache.get(Collections.singletonList(users[2].getUserId())));
+            Assert.assertEquals(users[2].getName(), entityDao.get(MyUser.class, users[2].getUserId()).getName());
+
+            // 事务提交前其他线程读到并缓存的旧数据在事务结束后失效
+            users[0].setName(RandomString.randomChinese(3));
+            new TransactionTemplate(transactionManager).execute(status -> {
+                entityDao.update(users[0]);
+                MyUser committed = CompletableFuture.supplyAsync(
+                        () -> entityDao.get(MyUser.class, users[0].getUserId())).join();
+                Assert.assertNotEquals(users[0].getName(), committed.getName());
+                return null;
+            });
+            Assert.assertEquals(users[0].getName(), entityDao.get(MyUser.class, users[0].getUserId()).getName());
+
+            entityDao.deleteBatch((Object[]) users);
+            Assert.assertNull(entityDao.get(MyUser.class, users[2].getUserId()));
+        } finally {
+            sqlGenerator.setEntityCache(MyUser.class, null);
+        }
+    }
+
+    @Test
+    public void queryCacheTest() {
+        Assert.assertEquals(new HashSet<>(Arrays.asList("MYUSER", "TEAM")),
+                QueryCache.getTables("SELECT u.* FROM MyUser u, Team t JOIN MyUser m ON m.userId = u.userId"));
+        QueryCache cache = new QueryCache(100, 60000);
+        entityDao.setQueryCache(cache);
+        try {
+            MyUser user = entityDao.add(createUser());
+            String sql = "SELECT * FROM MyUser WHERE userId = ?";
+            QueryOptions options = new QueryOptions();
+            Assert.assertEquals(1, entityDao.queryEntityList(options, MyUser.class, sql, user.getUserId()).size());
+            Assert.assertEquals(1, entityDao.queryMapList(options, sql, user.getUserId()).size());
+            Assert.assertEquals(1, entityDao.queryEntityList(options, MyUser.class, sql, user.getUserId()).size());
+            Assert.assertEquals(1, cache.getStats().getHits());
+
+            // 不使用缓存的查询不受影响 写入表后缓存的结果失效
+            String countSql = "SELECT COUNT(*) FROM MyUser";
+            long count = entityDao.queryLong(options, countSql);
+            MyUser other = entityDao.add(createUser());
+            Assert.assertEquals(count + 1, entityDao.queryLong(countSql));
+            Assert.assertEquals(count + 1, entityDao.queryLong(options, countSql));
+            entityDao.deleteEntity(user);
+            Assert.assertTrue(entityDao.queryEntityList(options, MyUser.class, sql, user.getUserId()).isEmpty());
+            clean(other);
+
+            // 使用同一个Sql生成器的DAO共享缓存 其他DAO写入表时也使结果失效
+            EntityDao teamDao = new EntityBaseDao();
+            teamDao.setJdbcOperations(entityDao.getJdbcOperations());
+            teamDao.setNamedParamOperations(entityDao.getNamedParamOperations());
+            teamDao.setSqlGenerator(entityDao.getSqlGenerator());
+            Assert.assertSame(cache, teamDao.getQueryCache());
+            String joinSql = "SELECT COUNT(*) FROM MyUser u JOIN Team t ON t.name = u.name";
+            long joined = entityDao.queryLong(options, joinSql);
+            MyUser member = entityDao.add(createUser());
+            entityDao.queryLong(options, joinSql);
+            Team team = new Team();
+            team.setName(member.getName());
+            team.setCreateTime(new Date());
+            teamDao.add(team);
+            Assert.assertEquals(joined + 1, entityDao.queryLong(options, joinSql));
+            teamDao.deleteEntity(team);
+            clean(member);
+        } finally {
+            entityDao.setQueryCache(null);
+        }
+    }
+
+    @Test
+    public void negativeLookupTest() {
+        SqlGenerator sqlGenerator = entityDao.getSqlGenerator();
+        MyUser existing = entityDao.add(createUser());
+        LruEntityCache negativeCache = new LruEntityCache(100, 60000);
+        sqlGenerator.setNegativeCache(MyUser.class, negativeCache);
+        IdentityFilter identityFilter = entityDao.buildIdentityFilter(MyUser.class, 1000, 0.01);
+        try {
+            Assert.assertTrue(identityFilter.mightContain(new Object[]{existing.getUserId()}));
+            Assert.assertNotNull(entityDao.get(MyUser.class, existing.getUserId()));
+
+            // 未找到的ID被缓存 再次获取不查询
+            MyUser user = createUser();
+            sqlGenerator.generateIdentity(user);
+            Assert.assertNull(entityDao.get(MyUser.class, user.getUserId()));
+            Assert.assertNull(entityDao.get(MyUser.class, user.getUserId()));
+
+            // 添加后过滤器和缓存同步更新
+            entityDao.add(user);
+            Assert.assertTrue(identityFilter.mightContain(new Object[]{user.getUserId()}));
+            Assert.assertEquals(user.getName(), entityDao.get(MyUser.class, user.getUserId()).getName());
+
+            // 事务中删除后未找到的ID不缓存 回滚后仍能获取
+            new TransactionTemplate(transactionManager).execute(status -> {
+                entityDao.deleteEntity(existing);
+                Assert.assertNull(entityDao.get(MyUser.class, existing.getUserId()));
+                status.setRollbackOnly();
+                return null;
+            });
+            Assert.assertNull(negativeCache.get(Collections.singletonList(existing.getUserId())));
+            Assert.assertNotNull(entityDao.get(MyUser.class, existing.getUserId()));
+            clean(existing, user);
+        } finally {
+            sqlGenerator.setNegativeCache(MyUser.class, null);
+            sqlGenerator.setIdentityFilter(MyUser.class, null);
+        }
+    }
+
+    @Test
+    public void identityMapTest() {
+        MyUser user = entityDao.add(createUser());
+        try (IdentityMap.Scope scope = IdentityMap.open()) {
+            MyUser loaded = entityDao.get(MyUser.class, user.getUserId());
+            Assert.assertSame(loaded, entityDao.get(MyUser.class, user.getUserId()));
+            Assert.assertSame(loaded, entityDao.getBatch(MyUser.class, user.getUserId()).get(0));
+            // 写入后重新获取
+            entityDao.update(user);
+            Assert.assertNotSame(loaded, entityDao.get(MyUser.class, user.getUserId()));
+            Assert.assertEquals(1, scope.getIdentityMap().size());
+        }
+        Assert.assertNull(IdentityMap.current());
+        Assert.assertNotSame(entityDao.get(MyUser.class, user.getUserId()), entityDao.get(MyUser.class, user.getUserId()));
+
+        // 绑定到事务 事务完成时清空
+        new TransactionTemplate(transactionManager).execute(status -> {
+            IdentityMap.openInTransaction();
+            MyUser loaded = entityDao.get(MyUser.class, user.getUserId());
+            Assert.assertSame(loaded, entityDao.get(MyUser.class, user.getUserId()));
+            return null;
+        });
+        Assert.assertNull(IdentityMap.current());
+        clean(user);
+    }
+
+    @Test
+    public void asyncDaoTest() throws Exception {
+        try (AsyncExecutor asyncExecutor = new AsyncExecutor(dataSource, 1)) {
+            AsyncEntityDao asyncEntityDao = new AsyncEntityBaseDao(entityDao, asyncExecutor);
+            MyUser user = asyncEntityDao.add(createUser()).get();
+            Assert.assertEquals(user.getName(), asyncEntityDao.get(MyUser.class, user.getUserId()).get().getName());
+
+            // 超时后取消正在执行的语句并释放并发数
+            String sql = "SELECT COUNT(*) FROM SYSTEM_RANGE(1, 100000) A, SYSTEM_RANGE(1, 100000) B";
+            asyncExecutor.setTimeoutMillis(200);
+            try {
+                asyncEntityDao.queryLong(sql).get();
+                Assert.fail("Query should be timeout.");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof TimeoutException);
+            }
+            asyncExecutor.setTimeoutMillis(0);
+            Assert.assertEquals(1L, (long) asyncEntityDao.queryLong("SELECT 1").get());
+            asyncEntityDao.deleteEntity(user).get();
+        }
+    }
+
+    @Test
+    public void publisherTest() throws Exception {
+        String level = String.valueOf(System.nanoTime() % 1000000 + 1000);
+        MyUser[] users = new MyUser[5];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = createUser();
+            users[i].setLevel(Integer.parseInt(level));
+        }
+        entityDao.addBatch(users);
+        String sql = "SELECT * FROM MyUser WHERE level = ?";
+
+        // 每次请求两条直到完成
+        List<MyUser> received = new ArrayList<>();
+        CompletableFuture<Integer> completed = new CompletableFuture<>();
+        entityDao.queryEntityPublisher(MyUser.class, sql, level).subscribe(new Flow.Subscriber<MyUser>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(2);
+            }
+
+            @Override
+            public void onNext(MyUser item) {
+                received.add(item);
+                if (received.size() % 2 == 0)
+                    subscription.request(2);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                completed.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                completed.complete(received.size());
+            }
+        });
+        Assert.assertEquals(5, (int) completed.get(5, TimeUnit.SECONDS));
+        Assert.assertNotNull(received.get(0).getName());
+
+        // 取消后不再发送
+        List<Map<String, Object>> maps = new ArrayList<>();
+        CompletableFuture<Boolean> cancelled = new CompletableFuture<>();
+        entityDao.queryMapPublisher(sql, level).subscribe(new Flow.Subscriber<Map<String, Object>>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(Map<String, Object> item) {
+                maps.add(item);
+                subscription.cancel();
+                cancelled.complete(true);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                cancelled.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                cancelled.complete(false);
+            }
+        });
+        Assert.assertTrue(cancelled.get(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        Assert.assertEquals(1, maps.size());
+        Assert.assertNotNull(maps.get(0).get("name"));
+        clean(users);
+    }
+
+    @Test
+    public void replicaRouterTest() {
+        ReplicaRouter replicaRouter = new ReplicaRouter(ReplicaRouter.Strategy.ROUND_ROBIN,
+                new DriverManagerDataSource("jdbc:h2:mem:replica1;DB_CLOSE_DELAY=-1"),
+                new DriverManagerDataSource("jdbc:h2:mem:replica2;DB_CLOSE_DELAY=-1"));
+        String sql = "SELECT DATABASE() AS NAME";
+        Object primary = entityDao.queryMap(sql).get("NAME");
+        entityDao.setReplicaRouter(replicaRouter);
+        try {
+            // 查询轮流分配到从库
+            Set<Object> names = new HashSet<>();
+            for (int i = 0; i < 4; i++)
+                names.add(entityDao.queryMap(sql).get("NAME"));
+            Assert.assertEquals(new HashSet<>(Arrays.asList("REPLICA1", "REPLICA2")), names);
+            Assert.assertEquals(2, replicaRouter.getRoutedCount(0));
+            Assert.assertEquals(2, replicaRouter.getRoutedCount(1));
+
+            // 标记为一致读取或在读写事务中使用主库
+            try (ReplicaRouter.Scope scope = ReplicaRouter.primary()) {
+                Assert.assertEquals(primary, entityDao.queryMap(sql).get("NAME"));
+            }
+            TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+            Assert.assertEquals(primary, transactionTemplate.execute(status -> entityDao.queryMap(sql).get("NAME")));
+            transactionTemplate.setReadOnly(true);
+            Assert.assertNotEquals(primary, transactionTemplate.execute(status -> entityDao.queryMap(sql).get("NAME")));
+
+            // 写入始终使用主库 写入后的窗口期内当前线程也读取主库
+            MyUser user = entityDao.add(createUser());
+            Assert.assertNotNull(entityDao.get(MyUser.class, user.getUserId()));
+            Assert.assertEquals(primary, entityDao.queryMap(sql).get("NAME"));
+            // 窗口期按表记录 写入其他表不影响该表的缓存
+            Assert.assertTrue(replicaRouter.isWriteWindowOpen("MyUser"));
+            Assert.assertFalse(replicaRouter.isWriteWindowOpen("Team"));
+            replicaRouter.setWriteWindowMillis(0);
+            Assert.assertNotEquals(primary, entityDao.queryMap(sql).get("NAME"));
+            Assert.assertFalse(replicaRouter.isWriteWindowOpen("MyUser"));
+            try (ReplicaRouter.Scope scope = ReplicaRouter.primary()) {
+                Assert.assertNotNull(entityDao.get(MyUser.class, user.getUserId()));
+            }
+            clean(user);
+
+            entityDao.setReplicaRouter(new ReplicaRouter(ReplicaRouter.Strategy.LEAST_IN_FLIGHT,
+                    new DriverManagerDataSource("jdbc:h2:mem:replica1;DB_CLOSE_DELAY=-1")));
+            Assert.assertEquals("REPLICA1", entityDao.queryMap(sql).get("NAME"));
+        } finally {
+            entityDao.setReplicaRouter(null);
+        }
+        Assert.assertEquals(primary, entityDao.queryMap(sql).get("NAME"));
+    }
+
+    @Test
+    public void hedgedReadTest() {
+        DriverManagerDataSource slow = new DriverManagerDataSource("jdbc:h2:mem:hedge1;DB_CLOSE_DELAY=-1");
+        DriverManagerDataSource fast = new DriverManagerDataSource("jdbc:h2:mem:hedge2;DB_CLOSE_DELAY=-1");
+        // 同一个查询在一个从库中很慢而在另一个从库中很快
+        new JdbcTemplate(slow).execute("CREATE ALIAS IF NOT EXISTS DELAY FOR \"java.lang.Thread.sleep\"");
+        new JdbcTemplate(fast).execute("CREATE ALIAS IF NOT EXISTS DELAY FOR \"java.lang.Math.abs(long)\"");
+        ReplicaRouter replicaRouter = new ReplicaRouter(ReplicaRouter.Strategy.ROUND_ROBIN, slow, fast)
+                .setHedgePolicy(new HedgePolicy().setDelayMillis(50));
+        entityDao.setReplicaRouter(replicaRouter);
+        try {
+            String sql = "SELECT DELAY(1000) AS V, DATABASE() AS NAME";
+            long start = System.currentTimeMillis();
+            Assert.assertEquals("HEDGE2", entityDao.queryMap(sql).get("NAME"));
+            Assert.assertTrue(System.currentTimeMillis() - start < 800);
+            Assert.assertEquals("HEDGE2", entityDao.queryMap(sql).get("NAME"));
+            Assert.assertEquals(1, replicaRouter.getHedgedCount());
+            Assert.assertEquals(1, replicaRouter.getHedgeWinCount());
+            Assert.assertEquals(0.5, replicaRouter.getHedgeRate(), 0.001);
+
+            // 自适应时很快的查询不会几乎全部被对冲
+            ReplicaRouter adaptiveRouter = new ReplicaRouter(ReplicaRouter.Strategy.ROUND_ROBIN, fast, fast)
+                    .setHedgePolicy(new HedgePolicy().setAdaptive(true).setMinSamples(5));
+            entityDao.setReplicaRouter(adaptiveRouter);
+            for (int i = 0; i < 100; i++)
+                entityDao.queryMap("SELECT 1 AS V");
+            Assert.assertEquals(100, adaptiveRouter.getHedgeableCount());
+            Assert.assertTrue(adaptiveRouter.getHedgeRate() < 0.3);
+        } finally {
+            entityDao.setReplicaRouter(null);
+        }
+    }
+
+    /**
+     * 创建使用独立数据库的分片。
+     */
+    private EntityDao createShard(String name) {
+        DriverManagerDataSource shardSource = new DriverManagerDataSource("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        DatabasePopulatorUtils.execute(new ResourceDatabasePopulator(new ClassPathResource("firstdata.sql")), shardSource);
+        EntityDao shard = new EntityBaseDao();
+        shard.setJdbcOperations(new JdbcTemplate(shardSource));
+        shard.setNamedParamOperations(new NamedParameterJdbcTemplate(shardSource));
+        shard.setSqlGenerator(entityDao.getSqlGenerator());
+        return shard;
+    }
+
+    @Test
+    public void shardingTest() {
+        ShardedEntityDao shardedDao = new ShardedEntityDao(new GlobalIdShardStrategy(),
+                createShard("shard1"), createShard("shard2"));
+        MyUser[] users = new MyUser[10];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = createUser();
+            users[i].setLevel(i);
+        }
+        shardedDao.addBatch(users);
+        Assert.assertEquals(10, shardedDao.countAll(MyUser.class));
+        Assert.assertEquals(10, shardedDao.getShard(0).countAll(MyUser.class) + shardedDao.getShard(1).countAll(MyUser.class));
+        for (MyUser user : users) {
+            EntityDao shard = shardedDao.getShard(shardedDao.getShardIndex(MyUser.class, user.getUserId()));
+            Assert.assertNotNull(shard.get(MyUser.class, user.getUserId()));
+            Assert.assertEquals(user.getName(), shardedDao.get(MyUser.class, user.getUserId()).getName());
+        }
+        Assert.assertEquals(10, shardedDao.getBatch(MyUser.class, users).size());
+        Assert.assertEquals(10, shardedDao.getAll(MyUser.class).size());
+
+        // 分页按排序键合并
+        List<MyUser> sorted = new ArrayList<>(Arrays.asList(users));
+        sorted.sort(Comparator.comparing(MyUser::getUserId));
+        PageData<MyUser> page = shardedDao.getByPage(MyUser.class, new PageParam(3, 4));
+        Assert.assertEquals(10, page.getTotal());
+        for (int i = 0; i < 4; i++)
+            Assert.assertEquals(sorted.get(i + 3).getUserId(), page.getContent().get(i).getUserId());
+        page = shardedDao.getByPage(MyUser.class, new PageParam(0, 3), "level", true);
+        Assert.assertEquals(Arrays.asList(9, 8, 7), Arrays.asList(page.getContent().get(0).getLevel(),
+                page.getContent().get(1).getLevel(), page.getContent().get(2).getLevel()));
+
+        // 排序键相同时按ID排序 翻页不重复不遗漏
+        for (int i = 0; i < users.length; i++)
+            users[i].setLevel(i % 2);
+        shardedDao.updateBatch(users);
+        sorted.sort(Comparator.comparing(MyUser::getLevel).thenComparing(MyUser::getUserId));
+        List<String> pagedIds = new ArrayList<>();
+        for (int offset = 0; offset < users.length; offset += 3) {
+            for (MyUser user : shardedDao.getByPage(MyUser.class, new PageParam(offset, 3), "level", false).getContent())
+                pagedIds.add(user.getUserId());
+        }
+        List<String> sortedIds = new ArrayList<>();
+        for (MyUser user : sorted)
+            sortedIds.add(user.getUserId());
+        Assert.assertEquals(sortedIds, pagedIds);
+
+        users[0].setName("更新");
+        shardedDao.update(users[0]);
+        Assert.assertEquals("更新", shardedDao.get(MyUser.class, users[0]).getName());
+        shardedDao.deleteBatch((Object[]) users);
+        Assert.assertEquals(0, shardedDao.countAll(MyUser.class));
+    }
+
+    @Test
+    public void singleFlightTest() throws Exception {
+        entityDao.getJdbcOperations().execute("CREATE ALIAS IF NOT EXISTS SLEEP_MS FOR \"java.lang.Thread.sleep\"");
+        SingleFlight singleFlight = new SingleFlight();
+        entityDao.setSingleFlight(singleFlight);
+        try {
+            // 并发的相同查询只执行一次
+            CountDownLatch start = new CountDownLatch(1);
+            ExecutorService executor = Executors.newFixedThreadPool(5);
+            List<CompletableFuture<List<Map<String, Object>>>> futures = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                futures.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return entityDao.queryMapList(new QueryOptions(false, 0), "SELECT SLEEP_MS(500) AS V, 1 AS N");
+                }, executor));
+            }
+            start.countDown();
+            for (CompletableFuture<List<Map<String, Object>>> future : futures) {
+                List<Map<String, Object>> result = future.get(5, TimeUnit.SECONDS);
+                Assert.assertEquals(1, ((Number) result.get(0).get("N")).intValue());
+            }
+            executor.shutdown();
+            Assert.assertEquals(1, singleFlight.getFlights());
+            Assert.assertEquals(4, singleFlight.getCoalesced());
+
+            // 不同的键各自执行
+            MyUser user = addUser();
+            Assert.assertEquals(user.getName(), entityDao.get(MyUser.class, user.getUserId()).getName());
+            Assert.assertEquals(2, singleFlight.getFlights());
+
+            // 写入之后的读取不共享写入之前开始的加载
+            CountDownLatch loading = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            EntityDao blockingDao = newBlockingDao(entityDao.getSqlGenerator(), loading, release);
+            blockingDao.setSingleFlight(singleFlight);
+            CompletableFuture<MyUser> stale = CompletableFuture.supplyAsync(
+                    () -> blockingDao.get(MyUser.class, user.getUserId()));
+            Assert.assertTrue(loading.await(5, TimeUnit.SECONDS));
+            user.setName(RandomString.randomChinese(3));
+            blockingDao.update(user);
+            Assert.assertEquals(user.getName(), blockingDao.get(MyUser.class, user.getUserId()).getName());
+            release.countDown();
+            Assert.assertNotEquals(user.getName(), stale.get(5, TimeUnit.SECONDS).getName());
+            Assert.assertEquals(4, singleFlight.getFlights());
+            clean(user);
+        } finally {
+            entityDao.setSingleFlight(null);
+        }
+    }
+
+    @Test
+    public void metricsTest() throws Exception {
+        EntityDao target = new EntityBaseDao();
+        target.setJdbcOperations(entityDao.getJdbcOperations());
+        target.setNamedParamOperations(entityDao.getNamedParamOperations());
+        target.setSqlGenerator(entityDao.getSqlGenerator());
+        MetricsRecorder recorder = new MetricsRecorder();
+        EntityDao metricsDao = DaoMetrics.instrument(target, EntityDao.class, recorder);
+
+        MyUser user = metricsDao.add(createUser());
+        metricsDao.get(MyUser.class, user.getUserId());
+        metricsDao.getBatch(MyUser.class, user.getUserId(), "NotExists");
+        try {
+            metricsDao.queryLong("SELECT NOT_EXISTS FROM MyUser");
+            Assert.fail("Query should fail.");
+        } catch (RuntimeException e) {
+            OperationStats.Snapshot failed = recorder.getDaoCall("queryLong");
+            Assert.assertEquals(1, failed.getErrors());
+            Assert.assertEquals(1, recorder.getStatement("SELECT NOT_EXISTS FROM MyUser").getErrors());
+        }
+
+        OperationStats.Snapshot add = recorder.getDaoCall("add(MyUser)");
+        Assert.assertEquals(1, add.getCalls());
+        Assert.assertEquals(1, add.getRows());
+        Assert.assertEquals(1, recorder.getDaoCall("getBatch(MyUser)").getRows());
+        String getSql = entityDao.getSqlGenerator().getSelectWhereIdEquals(MyUser.class);
+        Assert.assertEquals(1, recorder.getStatement(getSql).getCalls());
+        long histogramTotal = 0;
+        for (long count : add.getHistogram())
+            histogramTotal += count;
+        Assert.assertEquals(1, histogramTotal);
+
+        // 不同页的分页查询汇总为同一个语句模板
+        metricsDao.getByPage(MyUser.class, new PageParam(0, 2));
+        metricsDao.getByPage(MyUser.class, new PageParam(2, 2));
+        String pageSql = entityDao.getSqlGenerator().getSelectWhereTrue(MyUser.class) + " LIMIT ? OFFSET ?";
+        Assert.assertEquals(2, recorder.getStatement(pageSql).getCalls());
+
+        // 从库上的查询也会统计
+        target.setReplicaRouter(new ReplicaRouter(ReplicaRouter.Strategy.ROUND_ROBIN,
+                new DriverManagerDataSource("jdbc:h2:mem:metrics1;DB_CLOSE_DELAY=-1")));
+        Assert.assertEquals("METRICS1", metricsDao.queryMap("SELECT DATABASE() AS NAME").get("NAME"));
+        Assert.assertEquals(1, recorder.getStatement("SELECT DATABASE() AS NAME").getCalls());
+        target.setReplicaRouter(null);
+
+        // 通过JMX查看
+        recorder.registerMBean("metricsTest");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            Object[] daoCalls = (Object[]) server.getAttribute(recorder.getObjectName(), "DaoCalls");
+            Assert.assertEquals(recorder.getDaoCalls().size(), daoCalls.length);
+        } finally {
+            recorder.unregisterMBean();
+        }
+        metricsDao.deleteEntity(user);
+    }
+
+    /**
+     * 慢查询日志。
+     */
+    @Test
+    public void slowQueryLogTest() {
+        EntityDao target = new EntityBaseDao();
+        target.setJdbcOperations(entityDao.getJdbcOperations());
+        target.setNamedParamOperations(entityDao.getNamedParamOperations());
+        target.setSqlGenerator(entityDao.getSqlGenerator());
+        entityDao.getJdbcOperations().execute("CREATE ALIAS IF NOT EXISTS SLEEP_MS FOR \"java.lang.Thread.sleep\"");
+        List<Object> captured = new ArrayList<>();
+        SlowQueryLog slowQueryLog = new SlowQueryLog().setThresholdMillis(100).setCaptureParams(true)
+                .setSampleRate(1).setParamRedactor((name, value) -> {
+                    captured.add(value);
+                    return "?";
+                });
+        target.setSlowQueryLog(slowQueryLog);
+        Assert.assertSame(entityDao.getJdbcOperations(), target.getJdbcOperations());
+
+        String slowSql = "SELECT SLEEP_MS(?) AS V, 1 AS N";
+        target.queryMapList(slowSql, 150);
+        target.queryMapList(slowSql, 150);
+        target.queryLong("SELECT COUNT(*) FROM MyUser WHERE UserId = ?", "NotExists");
+        Assert.assertTrue(captured.contains(150));
+        Assert.assertTrue(captured.contains("NotExists"));
+
+        List<OperationStats.Snapshot> top = slowQueryLog.report(1);
+        Assert.assertEquals(1, top.size());
+        Assert.assertEquals(slowSql, top.get(0).getName());
+        Assert.assertEquals(2, top.get(0).getCalls());
+        Assert.assertTrue(top.get(0).getMeanMillis() >= 150);
+        Assert.assertTrue(slowQueryLog.getTopSlowest(1).isEmpty());
+
+        target.setSlowQueryLog(null);
+        target.queryLong("SELECT COUNT(*) FROM MyUser");
+        Assert.assertTrue(slowQueryLog.getTopSlowest(1).isEmpty());
+    }
+
+    /**
+     * 检测N+1查询。
+     */
+    @Test
+    public void queryRepeatDetectorTest() {
+        EntityDao target = new EntityBaseDao();
+        target.setJdbcOperations(entityDao.getJdbcOperations());
+        target.setNamedParamOperations(entityDao.getNamedParamOperations());
+        target.setSqlGenerator(entityDao.getSqlGenerator());
+        QueryRepeatDetector detector = new QueryRepeatDetector().setThreshold(3).setFailOnDetect(true);
+        EntityDao detectedDao = DaoMetrics.instrument(target, EntityDao.class, detector);
+        String getSql = entityDao.getSqlGenerator().getSelectWhereIdEquals(MyUser.class);
+
+        // 范围外不统计
+        for (int i = 0; i < 5; i++)
+            detectedDao.get(MyUser.class, "NotExists" + i);
+        Assert.assertEquals(0, detector.getDetectedCount());
+
+        try (QueryRepeatDetector.Scope ignored = detector.begin()) {
+            for (int i = 0; i < 3; i++)
+                detectedDao.get(MyUser.class, "NotExists" + i);
+            Assert.assertEquals(3, detector.getCount(getSql));
+            detectedDao.getBatch(MyUser.class, "NotExists0", "NotExists1");
+            try {
+                detectedDao.get(MyUser.class, "NotExists3");
+                Assert.fail("Repeated query should be detected.");
+            } catch (DaoException e) {
+                Assert.assertTrue(e.getMessage().contains("getBatch"));
+            }
+        }
+        Assert.assertEquals(1, detector.getDetectedCount());
+        Assert.assertEquals(0, detector.getCount(getSql));
+
+        // 事务中统计，事务结束时清除
+        detector.setFailOnDetect(false);
+        new TransactionTemplate(transactionManager).execute(status -> {
+            for (int i = 0; i < 5; i++)
+                detectedDao.get(MyUser.class, "NotExists" + i);
+            Assert.assertEquals(5, detector.getCount(getSql));
+            return null;
+        });
+        Assert.assertEquals(2, detector.getDetectedCount());
+        Assert.assertEquals(0, detector.getCount(getSql));
+
+        // 已添加统计的DAO同时通知统计和检测
+        EntityDao recordedTarget = new EntityBaseDao();
+        recordedTarget.setJdbcOperations(entityDao.getJdbcOperations());
+        recordedTarget.setNamedParamOperations(entityDao.getNamedParamOperations());
+        recordedTarget.setSqlGenerator(entityDao.getSqlGenerator());
+        MetricsRecorder recorder = new MetricsRecorder();
+        QueryRepeatDetector bothDetector = new QueryRepeatDetector().setThreshold(3);
+        EntityDao recordedDao = DaoMetrics.instrument(recordedTarget, EntityDao.class, recorder);
+        EntityDao bothDao = DaoMetrics.instrument(recordedDao, EntityDao.class, bothDetector);
+        DaoMetrics.instrument(recordedTarget, EntityDao.class, bothDetector);
+        try (QueryRepeatDetector.Scope ignored = bothDetector.begin()) {
+            for (int i = 0; i < 4; i++)
+                bothDao.get(MyUser.class, "NotExists" + i);
+            Assert.assertEquals(4, bothDetector.getCount(getSql));
+        }
+        Assert.assertEquals(1, bothDetector.getDetectedCount());
+        Assert.assertEquals(4, recorder.getStatement(getSql).getCalls());
+    }
+
+    /**
+     * 创建第一次按ID查询得到结果后阻塞的DAO，模拟写入之前开始的慢查询。
+     */
+    private EntityDao newBlockingDao(SqlGenerator sqlGenerator, CountDownLatch loading, CountDownLatch release) {
+        JdbcOperations jdbcOperations = entityDao.getJdbcOperations();
+        AtomicBoolean blocking = new AtomicBoolean(true);
+        EntityDao blockingDao = new EntityBaseDao();
+        blockingDao.setJdbcOperations((JdbcOperations) Proxy.newProxyInstance(JdbcOperations.class.getClassLoader(),
+                new Class[]{JdbcOperations.class}, (proxy, method, args) -> {
+                    Object result;
+                    try {
+                        result = method.invoke(jdbcOperations, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getTargetException();
+                    }
+                    if ("queryForObject".equals(method.getName()) && blocking.compareAndSet(true, false)) {
+                        loading.countDown();
+                        release.await(5, TimeUnit.SECONDS);
+                    }
+                    return result;
+                }));
+        blockingDao.setNamedParamOperations(entityDao.getNamedParamOperations());
+        blockingDao.setSqlGenerator(sqlGenerator);
+        return blockingDao;
+    }
+
+    /**
+     * 包含基本类型属性的结果行。
+     */
+    public static class PrimitiveRow {
+        private int level;
+
+        public int getLevel() {
+            return level;
+        }
+
+        public void setLevel(int level) {
+            this.level = level;
+        }
+    }
+
 }
@@ -5,6 +5,7 @@ import ewing.boot.entity.TeamId;
 import ewing.boot.genericdao.TeamDao;
 import ewing.dandelion.generation.SqlGenerator;
 import ewing.dandelion.pagination.PageData;
+import ewing.dandelion.pagination.PageIterator;
 import ewing.dandelion.pagination.PageParam;
 import ewing.utils.RandomString;
 import org.junit.Assert;
@@ -138,6 +139,43 @@ public class TeamDaoTests {
             Assert.assertTrue(team.getName().equals(teamDao.get(team).getName()));
         clean(teams);
 
+        // 使用CASE语句批量更新name属性 多ID并包含剩余的行
+        teams = new Team[]{createTeam(), createTeam(), createTeam()};
+        teamDao.addBatch(teams);
+        for (Team team : teams) {
+            team.setName(RandomString.randomChinese(3));
+            team.setDescription(RandomString.randomChinese(5));
+        }
+        config = new Team();
+        config.setName("");
+        teamDao.updateColumnsBatch(config, 2, teams);
+        for (Team team : teams) {
+            result = teamDao.get(team);
+            Assert.assertEquals(team.getName(), result.getName());
+            Assert.assertNotEquals(team.getDescription(), result.getDescription());
+        }
+        clean(teams);
+
+        // 插入或更新对象 不存在时插入
+        Team upsert = createTeam();
+        teamDao.upsert(upsert);
+        Assert.assertTrue(StringUtils.hasText(upsert.getMyId()));
+        Assert.assertTrue(upsert.getName().equals(teamDao.get(upsert).getName()));
+        // 存在时更新 ID保持不变
+        String myId = upsert.getMyId();
+        upsert.setName(RandomString.randomChinese(3));
+        teamDao.upsert(upsert);
+        Assert.assertEquals(myId, upsert.getMyId());
+        Assert.assertTrue(upsert.getName().equals(teamDao.get(upsert).getName()));
+
+        // 批量插入或更新对象
+        Team[] upserts = {upsert, createTeam(), createTeam()};
+        upsert.setName(RandomString.randomChinese(3));
+        teamDao.upsertBatch(upserts);
+        for (Team team : upserts)
+            Assert.assertTrue(team.getName().equals(teamDao.get(team).getName()));
+        clean(upserts);
+
         // 清理测试数据
         clean(myTeam);
     }
@@ -204,6 +242,12 @@ public class TeamDaoTests {
         myTeam = teamDao.get(teams[0]);
         Assert.assertNull(myTeam);
 
+        // 根据多个ID批量删除对象 多ID使用行值条件
+        teams = new Team[]{createTeam(), createTeam(), createTeam()};
+        teamDao.addBatch(teams);
+        Assert.assertEquals(teams.length, teamDao.deleteByIds((Object[]) teams));
+        Assert.assertTrue(teamDao.getBatch((Object[]) teams).isEmpty());
+
         // 删除全部对象
         team = addTeam();
         teamDao.deleteAll();
@@ -225,6 +269,29 @@ public class TeamDaoTests {
         PageData<Team> teams = teamDao.queryEntityPage(new PageParam(), Team.class, sql);
         Assert.assertTrue(teams.getTotal() > 0);
 
+        // 预加载分页迭代 多ID键集分页
+        Team team3 = addTeam();
+        long total = 0;
+        try (PageIterator<Team> iterator = teamDao.getPageIterator(1, 2)) {
+            while (iterator.hasNext()) {
+                List<Team> page = iterator.next();
+                Assert.assertTrue(page.size() <= 1);
+                total += page.size();
+            }
+        }
+        Assert.assertEquals(teamDao.countAll(), total);
+        clean(team3);
+
+        // 后台加载抛出Error时传给调用者而不是一直等待
+        try (PageIterator<Team> iterator = new PageIterator<>(1, 1, (last, offset) -> {
+            throw new AssertionError("Load page error.");
+        })) {
+            iterator.hasNext();
+            Assert.fail("Error should be rethrown.");
+        } catch (AssertionError e) {
+            Assert.assertEquals("Load page error.", e.getMessage());
+        }
+
         // 清理测试数据
         clean(team, team2);
     }
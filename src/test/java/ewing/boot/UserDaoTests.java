@@ -2,6 +2,8 @@ package ewing.boot;
 
 import ewing.boot.entity.MyUser;
 import ewing.boot.genericdao.UserDao;
+import ewing.dandelion.DaoException;
+import ewing.dandelion.batch.AutoBatchLoader;
 import ewing.dandelion.generation.SqlGenerator;
 import ewing.dandelion.pagination.PageData;
 import ewing.dandelion.pagination.PageParam;
@@ -17,6 +19,7 @@ import org.springframework.util.StringUtils;
 import java.math.BigDecimal;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 用户实体泛型DAO测试。
@@ -82,6 +85,15 @@ public class UserDaoTests {
         Assert.assertTrue(userDao.countAll() >= users.length);
         clean(users);
 
+        // 多行插入批量添加对象 包含剩余的行
+        users = new MyUser[]{createUser(), createUser(), createUser(), createUser(), createUser()};
+        Assert.assertSame(users, userDao.addBatchValues(2, users));
+        Object[] ids = new Object[users.length];
+        for (int i = 0; i < users.length; i++)
+            ids[i] = users[i].getUserId();
+        Assert.assertEquals(users.length, userDao.getBatch(ids).size());
+        clean(users);
+
         // 只保存name属性
         user = createUser();
         MyUser config = new MyUser();
@@ -155,6 +167,18 @@ public class UserDaoTests {
             Assert.assertTrue(user.getName().equals(userDao.get(user.getUserId()).getName()));
         clean(users);
 
+        // 使用CASE语句批量更新level属性
+        users = new MyUser[]{createUser(), createUser(), createUser()};
+        userDao.addBatch(users);
+        for (int i = 0; i < users.length; i++)
+            users[i].setLevel(10 + i);
+        config = new MyUser();
+        config.setLevel(1);
+        userDao.updateColumnsBatch(config, 10, users);
+        for (MyUser user : users)
+            Assert.assertEquals(user.getLevel(), userDao.get(user.getUserId()).getLevel());
+        clean(users);
+
         // 清理测试数据
         clean(myUser);
     }
@@ -259,4 +283,44 @@ public class UserDaoTests {
         clean(user);
     }
 
+    @Test
+    public void autoBatchLoaderTest() throws Exception {
+        MyUser user1 = addUser();
+        MyUser user2 = addUser();
+        try (AutoBatchLoader<MyUser> loader = new AutoBatchLoader<>(userDao, 100, 50)) {
+            // 同一时段的请求合并成一次查询
+            CompletableFuture<MyUser> future1 = loader.load(user1.getUserId());
+            CompletableFuture<MyUser> future2 = loader.load(user2);
+            CompletableFuture<MyUser> future3 = loader.load(user1.getUserId());
+            CompletableFuture<MyUser> missing = loader.load("NotExists");
+            Assert.assertEquals(user1.getName(), future1.get().getName());
+            Assert.assertEquals(user2.getName(), future2.get().getName());
+            Assert.assertEquals(user1.getName(), future3.get().getName());
+            Assert.assertNotSame(future1.get(), future3.get());
+            Assert.assertNull(missing.get());
+            Assert.assertEquals(1, loader.getBatchCount());
+            Assert.assertEquals(3, loader.getLastBatchSize());
+            Assert.assertTrue(loader.getAverageWaitMillis() >= 0);
+
+            // 达到数量上限时立即查询
+            try (AutoBatchLoader<MyUser> small = new AutoBatchLoader<>(userDao, 2, 60000)) {
+                CompletableFuture<MyUser> first = small.load(user1.getUserId());
+                Assert.assertEquals(user2.getName(), small.get(user2.getUserId()).getName());
+                Assert.assertNotNull(first.get());
+                Assert.assertEquals(2.0, small.getAverageBatchSize(), 0.001);
+            }
+
+            // 关闭后不再接收请求
+            AutoBatchLoader<MyUser> closed = new AutoBatchLoader<>(userDao, 100, 50);
+            closed.close();
+            try {
+                closed.load(user1.getUserId());
+                Assert.fail("Closed loader should reject requests.");
+            } catch (DaoException e) {
+                Assert.assertEquals(0, closed.getRequestCount());
+            }
+        }
+        clean(user1, user2);
+    }
+
 }
@@ -0,0 +1,43 @@
+package ewing.boot.entity;
+
+import ewing.dandelion.annotation.Identity;
+import ewing.dandelion.annotation.SqlName;
+
+import java.util.Date;
+
+/**
+ * 日志实体，数据库生成ID。
+ **/
+@SqlName("LOG")
+public class Log {
+    @Identity(autoIncrement = true)
+    private Long logId;
+
+    private String content;
+
+    private Date createTime;
+
+    public Long getLogId() {
+        return logId;
+    }
+
+    public void setLogId(Long logId) {
+        this.logId = logId;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public void setContent(String content) {
+        this.content = content;
+    }
+
+    public Date getCreateTime() {
+        return createTime;
+    }
+
+    public void setCreateTime(Date createTime) {
+        this.createTime = createTime;
+    }
+}
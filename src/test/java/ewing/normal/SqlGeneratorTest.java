@@ -1,6 +1,7 @@
 package ewing.normal;
 
 import ewing.boot.entity.MyUser;
+import ewing.dandelion.generation.Dialect;
 import ewing.dandelion.generation.SqlGenerator;
 
 import java.lang.reflect.Method;
@@ -85,7 +86,7 @@ public class SqlGeneratorTest {
         config.setBytesValue(new byte[0]);
 
         // 使用下划线风格的Sql命名（@SqlName注解优先）
-        SqlGenerator sqlGenerator = new SqlGenerator(true);
+        SqlGenerator sqlGenerator = new SqlGenerator(true, Dialect.MYSQL);
 
         // 按方法名字典顺序调用SqlGenerator中的方法
         Method[] methods = SqlGenerator.class.getDeclaredMethods();
@@ -44,3 +44,11 @@ CREATE TABLE IF NOT EXISTS Team (
   createTime  DATETIME    DEFAULT NULL,
   PRIMARY KEY (myId, yourId, hisId)
 );
+
+/*数据库生成ID的日志表*/
+CREATE TABLE IF NOT EXISTS Log (
+  logId       BIGINT AUTO_INCREMENT NOT NULL,
+  content     VARCHAR(64) DEFAULT NULL,
+  createTime  DATETIME    DEFAULT NULL,
+  PRIMARY KEY (logId)
+);